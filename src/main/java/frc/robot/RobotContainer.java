@@ -13,7 +13,7 @@
 
 package frc.robot;
 
-import static edu.wpi.first.units.Units.RevolutionsPerSecond;
+import static edu.wpi.first.units.Units.RPM;
 
 import com.pathplanner.lib.auto.AutoBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
@@ -22,7 +22,6 @@ import edu.wpi.first.wpilibj.GenericHID;
 import edu.wpi.first.wpilibj.XboxController;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.Commands;
-import edu.wpi.first.wpilibj2.command.WaitCommand;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
 import frc.robot.commands.DriveCommands;
@@ -33,6 +32,7 @@ import frc.robot.subsystems.climber.Climber;
 import frc.robot.subsystems.climber.ClimberIO;
 import frc.robot.subsystems.climber.RealClimberIO;
 import frc.robot.subsystems.drive.Drive;
+import frc.robot.subsystems.drive.DriveGroundTruthSim;
 import frc.robot.subsystems.drive.GyroIO;
 import frc.robot.subsystems.drive.GyroIOPigeon2;
 import frc.robot.subsystems.drive.ModuleIO;
@@ -45,6 +45,15 @@ import frc.robot.subsystems.intake.RealIntakeIO;
 import frc.robot.subsystems.shooter.RealShooterIO;
 import frc.robot.subsystems.shooter.Shooter;
 import frc.robot.subsystems.shooter.ShooterIO;
+import frc.robot.subsystems.shooter.ShooterIOSim;
+import frc.robot.subsystems.shooter.ShotSolver;
+import frc.robot.subsystems.vision.LimelightOrientationPublisher;
+import frc.robot.subsystems.vision.Vision;
+import frc.robot.subsystems.vision.VisionConstants;
+import frc.robot.subsystems.vision.VisionIO;
+import frc.robot.subsystems.vision.VisionIOLimelight;
+import frc.robot.subsystems.vision.VisionIOSim;
+import org.littletonrobotics.junction.Logger;
 import org.littletonrobotics.junction.networktables.LoggedDashboardChooser;
 
 /**
@@ -60,6 +69,13 @@ public class RobotContainer {
   private final Climber climber;
   private final Feeder feeder;
   private final Shooter shooter;
+  private final Vision vision;
+
+  // Shot solutions for shooting while driving
+  private final ShotSolver shotSolver;
+
+  // True pose of the simulated robot, null unless running in sim
+  private DriveGroundTruthSim groundTruthSim = null;
 
   // Controller
   private final CommandXboxController controller = new CommandXboxController(0);
@@ -84,22 +100,45 @@ public class RobotContainer {
         climber = new Climber(new RealClimberIO());
         shooter = new Shooter(new RealShooterIO());
         feeder = new Feeder(new RealFeederIO());
+        vision =
+            new Vision(
+                drive::addVisionMeasurement,
+                drive.getPoseHistory(),
+                // TODO: Change to VisionIOPhotonVision if using a PhotonVision coprocessor
+                new VisionIOLimelight(VisionConstants.camera0Name));
+        drive.addHeadingListener(
+            new LimelightOrientationPublisher(VisionConstants.camera0Name)::update);
         break;
 
       case SIM:
         // Sim robot, instantiate physics sim IO implementations
-        drive =
-            new Drive(
-                new GyroIO() {},
-                new ModuleIOSim(),
-                new ModuleIOSim(),
-                new ModuleIOSim(),
-                new ModuleIOSim());
+        ModuleIOSim flModuleSim = new ModuleIOSim();
+        ModuleIOSim frModuleSim = new ModuleIOSim();
+        ModuleIOSim blModuleSim = new ModuleIOSim();
+        ModuleIOSim brModuleSim = new ModuleIOSim();
+        drive = new Drive(new GyroIO() {}, flModuleSim, frModuleSim, blModuleSim, brModuleSim);
+
+        // Cameras render from the true sim pose, which the estimated pose doesn't feed back into
+        groundTruthSim =
+            new DriveGroundTruthSim(flModuleSim, frModuleSim, blModuleSim, brModuleSim);
+        drive.addPoseResetListener(groundTruthSim::resetPose);
         // intake = new Intake(new IntakeIO() {});
         intake = new Intake(new RealIntakeIO());
         climber = new Climber(new ClimberIO() {});
-        shooter = new Shooter(new ShooterIO() {});
         feeder = new Feeder(new RealFeederIO());
+        shooter = new Shooter(new ShooterIOSim(feeder::isFeeding));
+        vision =
+            new Vision(
+                drive::addVisionMeasurement,
+                drive.getPoseHistory(),
+                new VisionIOSim(
+                    VisionConstants.camera0Name,
+                    VisionConstants.robotToCamera0,
+                    groundTruthSim::getPose),
+                new VisionIOSim(
+                    VisionConstants.camera1Name,
+                    VisionConstants.robotToCamera1,
+                    groundTruthSim::getPose));
         break;
 
       default:
@@ -116,9 +155,17 @@ public class RobotContainer {
         climber = new Climber(new ClimberIO() {});
         shooter = new Shooter(new ShooterIO() {});
         feeder = new Feeder(new RealFeederIO());
+        vision =
+            new Vision(
+                drive::addVisionMeasurement,
+                drive.getPoseHistory(),
+                new VisionIO() {},
+                new VisionIO() {});
         break;
     }
 
+    shotSolver = new ShotSolver(drive::getPose, drive.getPoseHistory());
+
     // Set up auto routines
     autoChooser = new LoggedDashboardChooser<>("Auto Choices", AutoBuilder.buildAutoChooser());
 
@@ -137,6 +184,16 @@ public class RobotContainer {
         "Drive SysId (Dynamic Forward)", drive.sysIdDynamic(SysIdRoutine.Direction.kForward));
     autoChooser.addOption(
         "Drive SysId (Dynamic Reverse)", drive.sysIdDynamic(SysIdRoutine.Direction.kReverse));
+    autoChooser.addOption(
+        "Shooter SysId (Quasistatic Forward)",
+        shooter.sysIdQuasistatic(SysIdRoutine.Direction.kForward));
+    autoChooser.addOption(
+        "Shooter SysId (Quasistatic Reverse)",
+        shooter.sysIdQuasistatic(SysIdRoutine.Direction.kReverse));
+    autoChooser.addOption(
+        "Shooter SysId (Dynamic Forward)", shooter.sysIdDynamic(SysIdRoutine.Direction.kForward));
+    autoChooser.addOption(
+        "Shooter SysId (Dynamic Reverse)", shooter.sysIdDynamic(SysIdRoutine.Direction.kReverse));
 
     // Configure the button bindings
     configureButtonBindings();
@@ -204,17 +261,34 @@ public class RobotContainer {
     //     .onTrue(FeederCommands.runFeederAtPercentOutput(feeder, .5))
     //     .onFalse(FeederCommands.stopFeeder(feeder));
 
+    // Right bumper: spin up and feed whenever the flywheels are at speed, back to idle on release.
+    // Shoots at the speed for the current distance while the right trigger is held, otherwise at
+    // 4000 RPM.
     controller
         .rightBumper()
-        .onTrue(
-            ShooterCommands.setFlywheelTargetSpeed(
-                    shooter, RevolutionsPerSecond.of(4000 / 60.0)) // 2500 RPM
-                .andThen(ShooterCommands.waitForFlywheelsToReachSpeed(shooter).withTimeout(3)))
-        .onTrue(
-            new WaitCommand(2.5)
-                .andThen(FeederCommands.runFeederAtPercentOutput(feeder, 0.75).repeatedly()))
-        .onFalse(
-            FeederCommands.stopFeeder(feeder).andThen(ShooterCommands.runFlywheelsAtIdle(shooter)));
+        .whileTrue(
+            ShooterCommands.shootWhenReady(
+                shooter,
+                feeder,
+                () ->
+                    controller.rightTrigger().getAsBoolean()
+                        ? RPM.of(shotSolver.getFlywheelSpeedRPM())
+                        : RPM.of(4000.0)));
+
+    // Right trigger: aim at the hub while driving, and spin up for the current distance unless the
+    // right bumper is shooting
+    controller
+        .rightTrigger()
+        .whileTrue(
+            DriveCommands.joystickDriveAtAngle(
+                drive,
+                () -> -controller.getLeftY(),
+                () -> -controller.getLeftX(),
+                shotSolver::getTargetHeading));
+    controller
+        .rightTrigger()
+        .and(controller.rightBumper().negate())
+        .whileTrue(ShooterCommands.setFlywheelSpeedForShot(shooter, shotSolver));
 
     // Reset gyro to 0° when left dpad is pressed
     controller
@@ -235,6 +309,13 @@ public class RobotContainer {
     //         .onFalse(ClimberCommands.stopClimber(climber));
   }
 
+  /** Logs the true pose of the simulated robot, called once per loop in simulation. */
+  public void simulationPeriodic() {
+    if (groundTruthSim != null) {
+      Logger.recordOutput("Odometry/SimGroundTruth", groundTruthSim.getPose());
+    }
+  }
+
   /**
    * Use this to pass the autonomous command to the main {@link Robot} class.
    *
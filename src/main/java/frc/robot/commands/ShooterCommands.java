@@ -1,13 +1,26 @@
 package frc.robot.commands;
 
+import static edu.wpi.first.units.Units.RPM;
+
+import edu.wpi.first.math.filter.Debouncer;
+import edu.wpi.first.math.filter.Debouncer.DebounceType;
 import edu.wpi.first.units.measure.AngularVelocity;
 import edu.wpi.first.units.measure.Distance;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.Commands;
+import frc.robot.subsystems.feeder.Feeder;
 import frc.robot.subsystems.shooter.Shooter;
 import frc.robot.subsystems.shooter.ShooterConstants;
+import frc.robot.subsystems.shooter.ShotSolver;
+import java.util.function.Supplier;
+import org.littletonrobotics.junction.Logger;
 
 public class ShooterCommands {
+  private static enum ShootState {
+    SPINNING_UP,
+    FEEDING,
+    RECOVERING
+  }
 
   public ShooterCommands() {}
 
@@ -58,6 +71,59 @@ public class ShooterCommands {
         shooter);
   }
 
+  /**
+   * Sets the flywheel speed for shooting while driving, using the distance to the virtual target
+   * from the shot solver. The speed is updated every cycle as the robot moves.
+   *
+   * @param shooter The shooter subsystem
+   * @param shotSolver The shot solver to read the speed from
+   * @return Command that continuously sets the flywheel speed
+   */
+  public static Command setFlywheelSpeedForShot(Shooter shooter, ShotSolver shotSolver) {
+    return Commands.run(
+        () -> {
+          shooter.setFlywheelSpeed(RPM.of(shotSolver.getFlywheelSpeedRPM()));
+        },
+        shooter);
+  }
+
+  /**
+   * Spins the flywheels up and feeds as soon as they are stable at speed. Feeding pauses while the
+   * flywheels recover from a shot and resumes once they are back at speed, so balls are fed as
+   * fast as the flywheels can recover. The feeder stops when the command ends.
+   *
+   * @param shooter The shooter subsystem
+   * @param feeder The feeder subsystem
+   * @param speedSupplier Supplier for the flywheel speed, read every cycle
+   * @return Command that shoots until interrupted
+   */
+  public static Command shootWhenReady(
+      Shooter shooter, Feeder feeder, Supplier<AngularVelocity> speedSupplier) {
+    Debouncer readyDebouncer =
+        new Debouncer(ShooterConstants.SHOOT_READY_DEBOUNCE_SECONDS, DebounceType.kRising);
+    return Commands.run(
+            () -> {
+              shooter.setFlywheelSpeed(speedSupplier.get());
+              boolean recovering = shooter.isRecoveringFromShot();
+              boolean ready =
+                  readyDebouncer.calculate(shooter.areFlywheelsAtTargetSpeed() && !recovering);
+              if (ready) {
+                feeder.setFeederSpeed(ShooterConstants.SHOOT_FEED_DUTY_CYCLE);
+              } else {
+                feeder.stop();
+              }
+              Logger.recordOutput(
+                  "Shooter/ShootState",
+                  ready
+                      ? ShootState.FEEDING
+                      : recovering ? ShootState.RECOVERING : ShootState.SPINNING_UP);
+            },
+            shooter,
+            feeder)
+        .beforeStarting(() -> readyDebouncer.calculate(false))
+        .finallyDo(feeder::stop);
+  }
+
   public static Command waitForFlywheelsToReachSpeed(Shooter shooter) {
     return Commands.waitUntil(() -> shooter.areFlywheelsAtTargetSpeed());
   }
@@ -24,8 +24,8 @@ import com.pathplanner.lib.util.PathPlannerLogging;
 import edu.wpi.first.hal.FRCNetComm.tInstances;
 import edu.wpi.first.hal.FRCNetComm.tResourceType;
 import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Twist2d;
@@ -45,13 +45,15 @@ import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
 import frc.robot.Constants;
 import frc.robot.Constants.Mode;
 import frc.robot.util.LocalADStarAK;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import frc.robot.util.PoseHistory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
 public class Drive extends SubsystemBase {
-  static final Lock odometryLock = new ReentrantLock();
   private final GyroIO gyroIO;
   private final GyroIOInputsAutoLogged gyroInputs = new GyroIOInputsAutoLogged();
   private final Module[] modules = new Module[4]; // FL, FR, BL, BR
@@ -59,17 +61,63 @@ public class Drive extends SubsystemBase {
   private final Alert gyroDisconnectedAlert =
       new Alert("Disconnected gyro, using kinematics as fallback.", AlertType.kError);
 
+  private static final SwerveModuleState[] emptyModuleStates = new SwerveModuleState[] {};
+
   private SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
+  private final SwerveSetpointGenerator setpointGenerator = new SwerveSetpointGenerator();
+  private final Rotation2d[] measuredModuleAngles = new Rotation2d[4];
+
+  // Latest velocity command for the high-rate control loop, replaced as a whole by the main loop.
+  // The lock headings are set when the modules should form an X, see stopWithX().
+  private record VelocityCommand(
+      ChassisSpeeds speeds, double gyroYawRad, Rotation2d[] lockHeadings) {}
+
+  // With high-rate control, only the odometry thread uses the setpoint generator. The main loop
+  // sends everything, including X-lock requests, through the velocity command.
+  private final boolean highRateControl =
+      highRateControlEnabled && Constants.currentMode == Mode.REAL;
+  private volatile VelocityCommand velocityCommand = null; // Null when not running velocities
+  private VelocityCommand lastControlCommand = null; // Only used by the odometry thread
+  private double lastControlTimestamp = Double.NaN; // Only used by the odometry thread
+  private final Rotation2d[] controlModuleAngles = new Rotation2d[4]; // From the odometry frame
+  private final boolean[] controlModuleAngleValid = new boolean[4];
+
+  // Heading listeners run on the odometry thread, the list is replaced as a whole when one is added
+  private volatile HeadingListener[] headingListeners = new HeadingListener[0];
+  private volatile double headingOffsetRad = 0.0; // Estimated heading minus raw gyro yaw
   private Rotation2d rawGyroRotation = new Rotation2d();
-  private SwerveModulePosition[] lastModulePositions = // For delta tracking
-      new SwerveModulePosition[] {
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition()
-      };
-  private SwerveDrivePoseEstimator poseEstimator =
-      new SwerveDrivePoseEstimator(kinematics, rawGyroRotation, lastModulePositions, new Pose2d());
+  private double lastGyroSampleYawRad = 0.0; // As measured, before moving to the frame timestamp
+  private double lastGyroSampleTimestamp = Double.NaN;
+  private final List<Consumer<Pose2d>> poseResetListeners = new ArrayList<>();
+
+  // Reused for every odometry sample
+  private final ModuleDeltaTracker moduleDeltaTracker = new ModuleDeltaTracker();
+  private final Twist2d odometryTwist = new Twist2d();
+
+  // Slip and collision detection, odometry stays suspect until the hold time after the last one
+  private final SlipDetector slipDetector = new SlipDetector();
+  private double lastSuspectTimestamp = Double.NEGATIVE_INFINITY;
+  private boolean suspectOdometry = false;
+  private int slipSamples = 0;
+  private int degradedSamples = 0; // Samples solved without every module
+
+  private DrivePoseEstimator poseEstimator =
+      new DrivePoseEstimator(
+          kinematics,
+          rawGyroRotation,
+          new SwerveModulePosition[] {
+            new SwerveModulePosition(),
+            new SwerveModulePosition(),
+            new SwerveModulePosition(),
+            new SwerveModulePosition()
+          },
+          new Pose2d(),
+          poseHistorySeconds);
+
+  // Estimated pose and field-relative velocity at every odometry sample, for latency compensation
+  private final PoseHistory poseHistory =
+      new PoseHistory((int) Math.ceil(poseHistorySeconds * odometryFrequency));
+  private double lastSampleTimestamp = Double.NaN;
 
   public Drive(
       GyroIO gyroIO,
@@ -86,8 +134,12 @@ public class Drive extends SubsystemBase {
     // Usage reporting for swerve template
     HAL.report(tResourceType.kResourceType_RobotDrive, tInstances.kRobotDriveSwerve_AdvantageKit);
 
-    // Start odometry thread
-    SparkOdometryThread.getInstance().start();
+    // Run the drive control loop after every odometry sample if enabled. The robot starts the
+    // odometry thread once every IO is constructed.
+    if (highRateControl) {
+      SparkOdometryThread.getInstance().addFrameListener(this::runHighRateControl);
+    }
+    SparkOdometryThread.getInstance().addFrameListener(this::runHeadingListeners);
 
     // Configure AutoBuilder for PathPlanner
     AutoBuilder.configure(
@@ -125,73 +177,174 @@ public class Drive extends SubsystemBase {
 
   @Override
   public void periodic() {
-    odometryLock.lock(); // Prevents odometry updates while reading data
+    // The odometry frames for this cycle were latched by the robot before the scheduler ran
     gyroIO.updateInputs(gyroInputs);
     Logger.processInputs("Drive/Gyro", gyroInputs);
     for (var module : modules) {
       module.periodic();
     }
-    odometryLock.unlock();
 
-    // Stop moving when disabled
+    // Log odometry thread health
+    SparkOdometryThread.getInstance().logTelemetry();
+
+    // Stop moving when disabled, and restart setpoint generation from the measured module angles.
+    // The odometry thread resets the generator itself when it runs the control loop.
     if (DriverStation.isDisabled()) {
-      for (var module : modules) {
-        module.stop();
+      velocityCommand = null;
+      for (int i = 0; i < 4; i++) {
+        modules[i].stop();
+        measuredModuleAngles[i] = modules[i].getAngle();
+      }
+      if (!highRateControl) {
+        setpointGenerator.reset(measuredModuleAngles);
       }
     }
 
     // Log empty setpoint states when disabled
     if (DriverStation.isDisabled()) {
-      Logger.recordOutput("SwerveStates/Setpoints", new SwerveModuleState[] {});
-      Logger.recordOutput("SwerveStates/SetpointsOptimized", new SwerveModuleState[] {});
+      Logger.recordOutput("SwerveStates/Setpoints", emptyModuleStates);
+      Logger.recordOutput("SwerveStates/SetpointsOptimized", emptyModuleStates);
     }
 
     // Update odometry
     double[] sampleTimestamps =
-        modules[0].getOdometryTimestamps(); // All signals are sampled together
+        modules[0].getOdometryTimestamps(); // All signals are sampled in the same frames
     int sampleCount = sampleTimestamps.length;
+    boolean collision =
+        Math.hypot(
+                gyroInputs.accelerationXMetersPerSecSq, gyroInputs.accelerationYMetersPerSecSq)
+            > collisionAccelerationThreshold;
     for (int i = 0; i < sampleCount; i++) {
-      // Read wheel positions and deltas from each module
-      SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
-      SwerveModulePosition[] moduleDeltas = new SwerveModulePosition[4];
-      for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++) {
-        modulePositions[moduleIndex] = modules[moduleIndex].getOdometryPositions()[i];
-        moduleDeltas[moduleIndex] =
-            new SwerveModulePosition(
-                modulePositions[moduleIndex].distanceMeters
-                    - lastModulePositions[moduleIndex].distanceMeters,
-                modulePositions[moduleIndex].angle);
-        lastModulePositions[moduleIndex] = modulePositions[moduleIndex];
+      // Read wheel deltas from each module
+      moduleDeltaTracker.update(modules, i);
+
+      // Solve the chassis motion, leaving out a slipping module and checking against the gyro
+      double timestamp = sampleTimestamps[i];
+      double dt = timestamp - lastSampleTimestamp;
+      if (!(dt > 0.0)) {
+        dt = 1.0 / odometryFrequency; // First sample
+      }
+      double yawRad = gyroInputs.connected ? getOdometryYawRad(i, timestamp) : Double.NaN;
+      double gyroDeltaRad =
+          gyroInputs.connected
+              ? MathUtil.angleModulus(yawRad - rawGyroRotation.getRadians())
+              : Double.NaN;
+      slipDetector.update(
+          moduleDeltaTracker.getDeltas(), moduleDeltaTracker.getValid(), gyroDeltaRad, dt);
+      if (slipDetector.getUsedModuleCount() < 4) {
+        degradedSamples++;
+      }
+      if (slipDetector.isSlipping()) {
+        slipSamples++;
+      }
+      if (slipDetector.isSlipping() || collision) {
+        lastSuspectTimestamp = timestamp;
       }
 
       // Update gyro angle
       if (gyroInputs.connected) {
-        // Use the real gyro angle
-        rawGyroRotation = gyroInputs.odometryYawPositions[i];
+        // Use the real gyro angle, only creating a new rotation when the robot actually turned
+        if (rawGyroRotation.getRadians() != yawRad) {
+          rawGyroRotation = new Rotation2d(yawRad);
+        }
       } else {
-        // Use the angle delta from the kinematics and module deltas
-        Twist2d twist = kinematics.toTwist2d(moduleDeltas);
-        rawGyroRotation = rawGyroRotation.plus(new Rotation2d(twist.dtheta));
+        // Use the angle delta from the modules
+        rawGyroRotation = rawGyroRotation.plus(new Rotation2d(slipDetector.getDthetaRad()));
+      }
+
+      // Trust odometry less while it's suspect, so vision can pull the pose back faster
+      boolean suspect = timestamp - lastSuspectTimestamp < suspectOdometryHoldSeconds;
+      if (suspect != suspectOdometry) {
+        suspectOdometry = suspect;
+        if (suspect) {
+          poseEstimator.setStateStdDevs(
+              suspectOdometryStdDevMeters, suspectOdometryStdDevMeters, suspectOdometryStdDevRad);
+        } else {
+          poseEstimator.setStateStdDevs(
+              odometryStdDevMeters, odometryStdDevMeters, odometryStdDevRad);
+        }
       }
 
       // Apply update
-      poseEstimator.updateWithTime(sampleTimestamps[i], rawGyroRotation, modulePositions);
+      odometryTwist.dx = slipDetector.getDxMeters();
+      odometryTwist.dy = slipDetector.getDyMeters();
+      odometryTwist.dtheta = slipDetector.getDthetaRad();
+      poseEstimator.addOdometry(timestamp, odometryTwist);
+      recordPoseHistory(timestamp, dt);
+      lastSampleTimestamp = timestamp;
     }
 
+    // Let the heading listeners follow the estimated heading between main loop cycles
+    if (gyroInputs.connected) {
+      headingOffsetRad =
+          MathUtil.angleModulus(
+              poseEstimator.getEstimatedPosition().getRotation().getRadians()
+                  - rawGyroRotation.getRadians());
+    }
+
+    // Log odometry trust
+    Logger.recordOutput("Odometry/SuspectOdometry", suspectOdometry);
+    Logger.recordOutput("Odometry/CollisionDetected", collision);
+    Logger.recordOutput("Odometry/SlipSamples", slipSamples);
+    Logger.recordOutput("Odometry/ExcludedModule", slipDetector.getExcludedModule());
+    Logger.recordOutput("Odometry/UsedModuleCount", slipDetector.getUsedModuleCount());
+    Logger.recordOutput("Odometry/DegradedSamples", degradedSamples);
+
     // Update gyro alert
     gyroDisconnectedAlert.set(!gyroInputs.connected && Constants.currentMode != Mode.SIM);
   }
 
+  /**
+   * Returns the gyro yaw for an odometry sample at the frame timestamp. The gyro keeps its own
+   * measurement timestamps, so its yaw is moved to the frame timestamp using the rate between the
+   * last two gyro samples.
+   */
+  private double getOdometryYawRad(int sampleIndex, double timestamp) {
+    double yawRad = gyroInputs.odometryYawPositionsRad[sampleIndex];
+    double yawTimestamp = gyroInputs.odometryYawTimestamps[sampleIndex];
+    double dt = yawTimestamp - lastGyroSampleTimestamp;
+    double yawRateRadPerSec =
+        dt > 0.0 && dt < 2.0 / odometryFrequency
+            ? MathUtil.angleModulus(yawRad - lastGyroSampleYawRad) / dt
+            : 0.0;
+    lastGyroSampleYawRad = yawRad;
+    lastGyroSampleTimestamp = yawTimestamp;
+    return yawRad + yawRateRadPerSec * (timestamp - yawTimestamp);
+  }
+
+  /**
+   * Adds the latest estimated pose to the pose history, along with the field-relative velocity
+   * solved from the wheels and gyro for the last sample.
+   */
+  private void recordPoseHistory(double timestamp, double dt) {
+    Pose2d pose = poseEstimator.getEstimatedPosition();
+    double cos = pose.getRotation().getCos();
+    double sin = pose.getRotation().getSin();
+    poseHistory.addSample(
+        timestamp,
+        pose.getX(),
+        pose.getY(),
+        pose.getRotation().getRadians(),
+        (odometryTwist.dx * cos - odometryTwist.dy * sin) / dt,
+        (odometryTwist.dx * sin + odometryTwist.dy * cos) / dt,
+        odometryTwist.dtheta / dt);
+  }
+
   /**
    * Runs the drive at the desired velocity.
    *
    * @param speeds Speeds in meters/sec
    */
   public void runVelocity(ChassisSpeeds speeds) {
-    // Calculate module setpoints
+    // Leave the module setpoints to the odometry thread if it runs the control loop
+    if (highRateControl) {
+      sendVelocityCommand(speeds, null);
+      return;
+    }
+
+    // Calculate module setpoints, limited to what the modules can follow this cycle
     ChassisSpeeds discreteSpeeds = ChassisSpeeds.discretize(speeds, 0.02);
-    SwerveModuleState[] setpointStates = kinematics.toSwerveModuleStates(discreteSpeeds);
-    SwerveDriveKinematics.desaturateWheelSpeeds(setpointStates, maxSpeedMetersPerSec);
+    SwerveModuleState[] setpointStates = setpointGenerator.generate(discreteSpeeds, 0.02);
 
     // Log unoptimized setpoints
     Logger.recordOutput("SwerveStates/Setpoints", setpointStates);
@@ -206,8 +359,88 @@ public class Drive extends SubsystemBase {
     Logger.recordOutput("SwerveStates/SetpointsOptimized", setpointStates);
   }
 
+  /** Replaces the command followed by the high-rate control loop. */
+  private void sendVelocityCommand(ChassisSpeeds speeds, Rotation2d[] lockHeadings) {
+    velocityCommand =
+        new VelocityCommand(
+            speeds,
+            gyroInputs.connected ? rawGyroRotation.getRadians() : Double.NaN,
+            lockHeadings);
+    Logger.recordOutput("SwerveChassisSpeeds/Setpoints", speeds);
+  }
+
+  /**
+   * Recomputes the module setpoints for the latest velocity command, called by the odometry thread
+   * after every sample. The command's robot relative speeds were calculated for the heading when it
+   * was sent, so they are turned by how far the gyro has rotated since then. Module angles come
+   * from the same frame, a module whose angle couldn't be read keeps its previous setpoint.
+   */
+  private void runHighRateControl(double timestamp) {
+    VelocityCommand command = velocityCommand;
+    double dt = timestamp - lastControlTimestamp;
+    lastControlTimestamp = timestamp;
+
+    // Read the module angles from this frame, the logged inputs belong to the main loop
+    boolean allAnglesValid = true;
+    for (int i = 0; i < 4; i++) {
+      double angleRad = modules[i].getLatestOdometryTurnPositionRad();
+      Rotation2d angle = controlModuleAngles[i];
+      controlModuleAngleValid[i] = !Double.isNaN(angleRad);
+      if (!controlModuleAngleValid[i]) {
+        allAnglesValid = false;
+      } else if (angle == null || angle.getRadians() != angleRad) {
+        controlModuleAngles[i] = new Rotation2d(angleRad);
+      }
+    }
+
+    // Restart setpoint generation from the measured angles while there is nothing to follow
+    if (command == null || DriverStation.isDisabled()) {
+      lastControlCommand = null;
+      if (allAnglesValid) {
+        setpointGenerator.reset(controlModuleAngles);
+      }
+      return;
+    }
+    if (!(dt > 0.0 && dt < 2.0 / odometryFrequency)) {
+      dt = 1.0 / odometryFrequency; // First run or a missed sample
+    }
+
+    // Apply an X-lock once per command, the generator holds the headings while stopped
+    if (command != lastControlCommand) {
+      lastControlCommand = command;
+      if (command.lockHeadings() != null) {
+        setpointGenerator.resetHeadings(command.lockHeadings());
+      }
+    }
+
+    // Turn the speeds by the heading change since the command (NaN if the gyro isn't available)
+    double headingChangeRad =
+        MathUtil.angleModulus(gyroIO.getLatestOdometryYawRad() - command.gyroYawRad());
+    if (Double.isNaN(headingChangeRad)) {
+      headingChangeRad = 0.0;
+    }
+    double cos = Math.cos(headingChangeRad);
+    double sin = Math.sin(headingChangeRad);
+    ChassisSpeeds speeds = command.speeds();
+    ChassisSpeeds discreteSpeeds =
+        ChassisSpeeds.discretize(
+            speeds.vxMetersPerSecond * cos + speeds.vyMetersPerSecond * sin,
+            -speeds.vxMetersPerSecond * sin + speeds.vyMetersPerSecond * cos,
+            speeds.omegaRadiansPerSecond,
+            dt);
+
+    // Send setpoints to modules, logging is left to the main loop since it isn't thread safe
+    SwerveModuleState[] setpointStates = setpointGenerator.generate(discreteSpeeds, dt);
+    for (int i = 0; i < 4; i++) {
+      if (controlModuleAngleValid[i]) {
+        modules[i].runSetpoint(setpointStates[i], controlModuleAngles[i]);
+      }
+    }
+  }
+
   /** Runs the drive in a straight line with the specified drive output. */
   public void runCharacterization(double output) {
+    velocityCommand = null;
     for (int i = 0; i < 4; i++) {
       modules[i].runCharacterization(output);
     }
@@ -227,7 +460,11 @@ public class Drive extends SubsystemBase {
     for (int i = 0; i < 4; i++) {
       headings[i] = moduleTranslations[i].getAngle();
     }
-    kinematics.resetHeadings(headings);
+    if (highRateControl) {
+      sendVelocityCommand(new ChassisSpeeds(), headings);
+      return;
+    }
+    setpointGenerator.resetHeadings(headings);
     stop();
   }
 
@@ -300,9 +537,66 @@ public class Drive extends SubsystemBase {
   /** Resets the current odometry pose. */
   public void setPose(Pose2d pose) {
     poseEstimator.resetPosition(rawGyroRotation, getModulePositions(), pose);
+    poseHistory.clear(); // Older samples are relative to the old pose
+    headingOffsetRad =
+        MathUtil.angleModulus(pose.getRotation().getRadians() - rawGyroRotation.getRadians());
+    for (Consumer<Pose2d> listener : poseResetListeners) {
+      listener.accept(pose);
+    }
+  }
+
+  /**
+   * Adds a listener that receives the new pose whenever the odometry pose is reset, for example to
+   * move the simulated robot along with it. Listeners run on the main thread.
+   */
+  public void addPoseResetListener(Consumer<Pose2d> listener) {
+    poseResetListeners.add(listener);
+  }
+
+  /**
+   * Adds a listener that receives the estimated field-relative heading after every odometry
+   * sample, for example to send it to a coprocessor. Listeners run on the odometry thread, so they
+   * must be short and must not block. The heading follows the gyro between main loop cycles, so
+   * listeners only run while the gyro is read by the odometry thread.
+   */
+  public synchronized void addHeadingListener(HeadingListener listener) {
+    HeadingListener[] listeners = Arrays.copyOf(headingListeners, headingListeners.length + 1);
+    listeners[listeners.length - 1] = listener;
+    headingListeners = listeners;
+  }
+
+  /** Sends the heading in the latest odometry sample to the heading listeners. */
+  private void runHeadingListeners(double timestamp) {
+    HeadingListener[] listeners = headingListeners;
+    double yawRad = gyroIO.getLatestOdometryYawRad();
+    if (listeners.length == 0 || Double.isNaN(yawRad)) {
+      return; // No listeners, or the gyro isn't available this sample
+    }
+
+    // Use the rate measured by the gyro, differentiating the sampled yaw is too noisy
+    double headingRateRadPerSec = gyroIO.getLatestOdometryYawRateRadPerSec();
+    if (Double.isNaN(headingRateRadPerSec)) {
+      headingRateRadPerSec = 0.0;
+    }
+
+    double headingRad = MathUtil.angleModulus(yawRad + headingOffsetRad);
+    for (HeadingListener listener : listeners) {
+      listener.accept(timestamp, headingRad, headingRateRadPerSec);
+    }
   }
 
-  /** Adds a new timestamped vision measurement. */
+  /**
+   * Returns the history of estimated poses and field-relative velocities, for looking up where the
+   * robot was at a past timestamp.
+   */
+  public PoseHistory getPoseHistory() {
+    return poseHistory;
+  }
+
+  /**
+   * Adds a new timestamped vision measurement. Measurements are fused in order the next time the
+   * pose is read or odometry is updated.
+   */
   public void addVisionMeasurement(
       Pose2d visionRobotPoseMeters,
       double timestampSeconds,
@@ -320,4 +614,16 @@ public class Drive extends SubsystemBase {
   public double getMaxAngularSpeedRadPerSec() {
     return maxSpeedMetersPerSec / driveBaseRadius;
   }
+
+  @FunctionalInterface
+  public static interface HeadingListener {
+    /**
+     * Receives the estimated heading after an odometry sample.
+     *
+     * @param timestampSeconds The timestamp of the sample.
+     * @param headingRad The estimated field-relative heading.
+     * @param headingRateRadPerSec The rate of change of the heading.
+     */
+    public void accept(double timestampSeconds, double headingRad, double headingRateRadPerSec);
+  }
 }
@@ -25,6 +25,22 @@ public class DriveConstants {
   // TODO: Update with your max speed from your swerve modules documentation
   public static final double maxSpeedMetersPerSec = 4;
   public static final double odometryFrequency = 100.0; // Hz
+  public static final double poseHistorySeconds = 2.0; // How far back past poses can be looked up
+
+  // Recompute module setpoints on the odometry thread after every sample instead of once per main
+  // loop cycle. Only used on a real robot.
+  public static final boolean highRateControlEnabled = false;
+
+  // Odometry slip and collision detection. While odometry is suspect the estimator trusts it less,
+  // so vision corrects the pose faster.
+  public static final double slipVelocityThreshold = 0.5; // Meters/sec from the other modules
+  public static final double gyroMismatchThreshold = 0.5; // Rad/sec between wheels and gyro
+  public static final double collisionAccelerationThreshold = 1.5 * 9.81; // Meters/sec^2
+  public static final double suspectOdometryHoldSeconds = 0.25;
+  public static final double odometryStdDevMeters = 0.1;
+  public static final double odometryStdDevRad = 0.1;
+  public static final double suspectOdometryStdDevMeters = 0.5;
+  public static final double suspectOdometryStdDevRad = 0.3;
 
   // TODO: update based on your robots properties
   public static final double trackWidth = Units.inchesToMeters(26.5);
@@ -0,0 +1,84 @@
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.*;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import java.util.Random;
+
+/**
+ * The true pose of the simulated robot, for rendering sim sensors like cameras.
+ *
+ * <p>This integrates the simulated wheel motion directly from the module sims, so it never sees
+ * vision corrections, slip handling or anything else the pose estimator does. The wheels don't
+ * travel exactly what the encoders measure: each wheel's true radius differs from the configured
+ * one by a fixed error, and every step the wheels slip by random noise proportional to how far
+ * they rolled. The heading comes from the same wheel motion, since the sim has no gyro of its own.
+ * Odometry drifts away from this pose like it does on the field, so sensors rendered from it check
+ * the estimator instead of echoing it back. Noise uses a fixed seed so runs are repeatable.
+ */
+public class DriveGroundTruthSim {
+  private static final long seed = 6328;
+  private static final double wheelRadiusStdDevFraction = 0.02; // Fixed per wheel
+  private static final double slipStdDevFraction = 0.05; // Of the distance rolled each step
+
+  private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
+  private final ModuleIOSim[] modules;
+  private final Random random = new Random(seed);
+  private final double[] wheelRadiusScales = new double[4];
+  private final double[] lastDrivePositionsMeters = new double[4];
+  private final SwerveModulePosition[] deltas = new SwerveModulePosition[4];
+  private Pose2d pose = Pose2d.kZero;
+
+  /** Creates a new DriveGroundTruthSim from the module sims passed to the drive. */
+  public DriveGroundTruthSim(
+      ModuleIOSim flModule, ModuleIOSim frModule, ModuleIOSim blModule, ModuleIOSim brModule) {
+    modules = new ModuleIOSim[] {flModule, frModule, blModule, brModule};
+    for (int i = 0; i < 4; i++) {
+      wheelRadiusScales[i] = 1.0 + random.nextGaussian() * wheelRadiusStdDevFraction;
+      lastDrivePositionsMeters[i] = modules[i].getSimDrivePositionMeters();
+      deltas[i] = new SwerveModulePosition();
+    }
+  }
+
+  /**
+   * Returns the true pose of the robot. The wheel motion since the last call is integrated first,
+   * so this can be called any number of times per cycle.
+   */
+  public Pose2d getPose() {
+    boolean moved = false;
+    for (int i = 0; i < 4; i++) {
+      double drivePositionMeters = modules[i].getSimDrivePositionMeters();
+      double measuredMeters = drivePositionMeters - lastDrivePositionsMeters[i];
+      lastDrivePositionsMeters[i] = drivePositionMeters;
+      deltas[i].distanceMeters = 0.0;
+      deltas[i].angle = new Rotation2d(modules[i].getSimTurnPositionRad());
+      if (measuredMeters == 0.0) {
+        continue;
+      }
+
+      // Move the wheel by what it really rolled, with its true radius and some slip
+      moved = true;
+      deltas[i].distanceMeters =
+          measuredMeters * wheelRadiusScales[i]
+              + random.nextGaussian() * slipStdDevFraction * Math.abs(measuredMeters);
+    }
+    if (moved) {
+      pose = pose.exp(kinematics.toTwist2d(deltas));
+    }
+    return pose;
+  }
+
+  /**
+   * Moves the simulated robot to a pose, like placing it on the field. Use this when the estimated
+   * pose is reset, so the sim starts where the robot thinks it is.
+   */
+  public void resetPose(Pose2d pose) {
+    for (int i = 0; i < 4; i++) {
+      lastDrivePositionsMeters[i] = modules[i].getSimDrivePositionMeters();
+    }
+    this.pose = pose;
+  }
+}
@@ -0,0 +1,216 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.util.PoseHistory;
+
+/**
+ * Swerve pose estimator with the same API as WPILib's {@code SwerveDrivePoseEstimator}, that fuses
+ * vision without replaying the odometry history.
+ *
+ * <p>Odometry is integrated on its own and recorded in a fixed-size {@link PoseHistory}. To fuse a
+ * vision measurement, the estimate at the measurement's timestamp is found by undoing the odometry
+ * motion since then, and the difference to the vision pose is applied to the current estimate with
+ * the same steady-state Kalman gain WPILib uses.
+ *
+ * <p>Vision measurements are queued and fused the next time the estimate is read or odometry is
+ * updated. Each one is applied in the order it was added with its own correction, as WPILib does,
+ * so adding a measurement is cheap and the result matches WPILib for measurements added in order.
+ */
+public class DrivePoseEstimator {
+  private static final int maxPendingVisionMeasurements = 16;
+
+  private final SwerveDriveKinematics kinematics;
+  private final double[] stateVariances = new double[3]; // x, y, theta
+
+  // Odometry state, reused for every update
+  private final double[] lastModulePositionsMeters;
+  private final SwerveModulePosition[] moduleDeltas;
+  private Rotation2d lastGyroAngle;
+  private Pose2d odometryPose;
+  private final PoseHistory odometryHistory;
+  private final PoseHistory.Sample odometrySample = new PoseHistory.Sample();
+
+  private Pose2d estimatedPose;
+
+  // Vision measurements waiting to be fused, as parallel arrays
+  private final double[] pendingTimestamps = new double[maxPendingVisionMeasurements];
+  private final double[] pendingXs = new double[maxPendingVisionMeasurements];
+  private final double[] pendingYs = new double[maxPendingVisionMeasurements];
+  private final double[] pendingThetas = new double[maxPendingVisionMeasurements];
+  private final double[] pendingVariances = new double[maxPendingVisionMeasurements * 3];
+  private int pendingCount = 0;
+
+  /**
+   * Creates a new DrivePoseEstimator with the default state standard deviations of 0.1 meters and
+   * 0.1 radians.
+   *
+   * @param kinematics The kinematics of the drive.
+   * @param gyroAngle The current gyro angle.
+   * @param modulePositions The current module positions.
+   * @param initialPose The starting pose.
+   * @param historySeconds How long odometry is kept for fusing delayed vision measurements.
+   */
+  public DrivePoseEstimator(
+      SwerveDriveKinematics kinematics,
+      Rotation2d gyroAngle,
+      SwerveModulePosition[] modulePositions,
+      Pose2d initialPose,
+      double historySeconds) {
+    this.kinematics = kinematics;
+    lastModulePositionsMeters = new double[modulePositions.length];
+    moduleDeltas = new SwerveModulePosition[modulePositions.length];
+    for (int i = 0; i < modulePositions.length; i++) {
+      moduleDeltas[i] = new SwerveModulePosition();
+    }
+    odometryHistory =
+        new PoseHistory((int) Math.ceil(historySeconds * DriveConstants.odometryFrequency));
+    setStateStdDevs(0.1, 0.1, 0.1);
+    resetPosition(gyroAngle, modulePositions, initialPose);
+  }
+
+  /** Sets how much the odometry is trusted, larger values trust vision more. */
+  public void setStateStdDevs(double xMeters, double yMeters, double thetaRad) {
+    stateVariances[0] = xMeters * xMeters;
+    stateVariances[1] = yMeters * yMeters;
+    stateVariances[2] = thetaRad * thetaRad;
+  }
+
+  /** Resets the estimate to a pose, discarding the odometry history and any pending vision. */
+  public void resetPosition(
+      Rotation2d gyroAngle, SwerveModulePosition[] modulePositions, Pose2d pose) {
+    for (int i = 0; i < modulePositions.length; i++) {
+      lastModulePositionsMeters[i] = modulePositions[i].distanceMeters;
+    }
+    lastGyroAngle = gyroAngle;
+    odometryPose = pose;
+    estimatedPose = pose;
+    odometryHistory.clear();
+    pendingCount = 0;
+  }
+
+  /** Returns the current estimated pose, including all vision measurements added so far. */
+  public Pose2d getEstimatedPosition() {
+    fusePendingVision();
+    return estimatedPose;
+  }
+
+  /**
+   * Updates the estimate with a new odometry sample.
+   *
+   * @param timestamp The FPGA timestamp of the sample, in seconds.
+   * @param gyroAngle The gyro angle at the sample.
+   * @param modulePositions The module positions at the sample.
+   */
+  public void updateWithTime(
+      double timestamp, Rotation2d gyroAngle, SwerveModulePosition[] modulePositions) {
+    // Find the motion since the last sample, using the gyro for rotation
+    for (int i = 0; i < modulePositions.length; i++) {
+      moduleDeltas[i].distanceMeters =
+          modulePositions[i].distanceMeters - lastModulePositionsMeters[i];
+      moduleDeltas[i].angle = modulePositions[i].angle;
+      lastModulePositionsMeters[i] = modulePositions[i].distanceMeters;
+    }
+    Twist2d twist = kinematics.toTwist2d(moduleDeltas);
+    twist.dtheta = MathUtil.angleModulus(gyroAngle.getRadians() - lastGyroAngle.getRadians());
+    lastGyroAngle = gyroAngle;
+    addOdometry(timestamp, twist);
+  }
+
+  /**
+   * Updates the estimate with chassis motion that was already solved from the modules, for example
+   * with slipping modules left out. Module positions passed to {@link #resetPosition} are not used
+   * by this method.
+   *
+   * @param timestamp The FPGA timestamp of the sample, in seconds.
+   * @param twist The robot relative motion since the last sample.
+   */
+  public void addOdometry(double timestamp, Twist2d twist) {
+    fusePendingVision();
+
+    // Apply the same motion to the odometry and the estimate
+    odometryPose = odometryPose.exp(twist);
+    estimatedPose = estimatedPose.exp(twist);
+    odometryHistory.addSample(
+        timestamp,
+        odometryPose.getX(),
+        odometryPose.getY(),
+        odometryPose.getRotation().getRadians(),
+        0.0,
+        0.0,
+        0.0);
+  }
+
+  /**
+   * Queues a vision measurement to be fused the next time the estimate is read or odometry is
+   * updated.
+   *
+   * @param visionRobotPoseMeters The robot pose measured by vision.
+   * @param timestampSeconds The FPGA timestamp the measurement was captured at.
+   * @param visionMeasurementStdDevs The standard deviations of the x, y, and theta measurements.
+   */
+  public void addVisionMeasurement(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    if (pendingCount == maxPendingVisionMeasurements) {
+      fusePendingVision();
+    }
+    int index = pendingCount++;
+    pendingTimestamps[index] = timestampSeconds;
+    pendingXs[index] = visionRobotPoseMeters.getX();
+    pendingYs[index] = visionRobotPoseMeters.getY();
+    pendingThetas[index] = visionRobotPoseMeters.getRotation().getRadians();
+    for (int axis = 0; axis < 3; axis++) {
+      double stdDev = visionMeasurementStdDevs.get(axis, 0);
+      pendingVariances[index * 3 + axis] = stdDev * stdDev;
+    }
+  }
+
+  /** Fuses the queued vision measurements into the estimate, one at a time. */
+  private void fusePendingVision() {
+    for (int i = 0; i < pendingCount; i++) {
+      // Skip measurements older than the odometry history
+      if (!odometryHistory.getPoseAt(pendingTimestamps[i], odometrySample)) {
+        continue;
+      }
+
+      // Undo the odometry motion since the measurement to find the estimate at that time
+      Pose2d estimateAtTime =
+          estimatedPose.transformBy(new Transform2d(odometryPose, odometrySample.toPose2d()));
+
+      // Apply the residual scaled by the Kalman gain
+      estimatedPose =
+          new Pose2d(
+              estimatedPose.getX() + correction(i, 0, pendingXs[i] - estimateAtTime.getX()),
+              estimatedPose.getY() + correction(i, 1, pendingYs[i] - estimateAtTime.getY()),
+              new Rotation2d(
+                  estimatedPose.getRotation().getRadians()
+                      + correction(
+                          i,
+                          2,
+                          MathUtil.angleModulus(
+                              pendingThetas[i] - estimateAtTime.getRotation().getRadians()))));
+    }
+    pendingCount = 0;
+  }
+
+  /** Returns the correction for one axis of a queued measurement, given its residual. */
+  private double correction(int measurementIndex, int axis, double residual) {
+    double q = stateVariances[axis];
+    if (q == 0.0) {
+      return 0.0;
+    }
+    double r = pendingVariances[measurementIndex * 3 + axis];
+    double gain = q / (q + Math.sqrt(q * r));
+    return gain * residual;
+  }
+}
@@ -22,9 +22,28 @@ public interface GyroIO {
     public boolean connected = false;
     public Rotation2d yawPosition = new Rotation2d();
     public double yawVelocityRadPerSec = 0.0;
+    public double accelerationXMetersPerSecSq = 0.0;
+    public double accelerationYMetersPerSecSq = 0.0;
     public double[] odometryYawTimestamps = new double[] {};
-    public Rotation2d[] odometryYawPositions = new Rotation2d[] {};
+    public double[] odometryYawPositionsRad = new double[] {};
   }
 
   public default void updateInputs(GyroIOInputs inputs) {}
+
+  /**
+   * Returns the yaw in the latest odometry thread frame in radians, or NaN if the gyro isn't read
+   * by the odometry thread. Only call from an odometry thread frame listener.
+   */
+  public default double getLatestOdometryYawRad() {
+    return Double.NaN;
+  }
+
+  /**
+   * Returns the yaw rate measured by the gyro in the latest odometry thread frame in radians per
+   * second, or NaN if the gyro isn't read by the odometry thread. Only call from an odometry
+   * thread frame listener.
+   */
+  public default double getLatestOdometryYawRateRadPerSec() {
+    return Double.NaN;
+  }
 }
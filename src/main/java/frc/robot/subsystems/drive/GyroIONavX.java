@@ -19,17 +19,17 @@ import com.studica.frc.AHRS;
 import com.studica.frc.AHRS.NavXComType;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
-import java.util.Queue;
 
 /** IO implementation for NavX. */
 public class GyroIONavX implements GyroIO {
+  private static final double gravityMetersPerSecSq = 9.80665; // Accelerations are reported in g
   private final AHRS navX = new AHRS(NavXComType.kMXP_SPI, (byte) odometryFrequency);
-  private final Queue<Double> yawPositionQueue;
-  private final Queue<Double> yawTimestampQueue;
+  private final int yawPositionColumn;
+  private final int yawVelocityColumn;
 
   public GyroIONavX() {
-    yawTimestampQueue = SparkOdometryThread.getInstance().makeTimestampQueue();
-    yawPositionQueue = SparkOdometryThread.getInstance().registerSignal(navX::getAngle);
+    yawPositionColumn = SparkOdometryThread.getInstance().registerSignal(navX::getAngle);
+    yawVelocityColumn = SparkOdometryThread.getInstance().registerSignal(navX::getRawGyroZ);
   }
 
   @Override
@@ -37,14 +37,27 @@ public class GyroIONavX implements GyroIO {
     inputs.connected = navX.isConnected();
     inputs.yawPosition = Rotation2d.fromDegrees(-navX.getAngle());
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(-navX.getRawGyroZ());
+    inputs.accelerationXMetersPerSecSq = navX.getWorldLinearAccelX() * gravityMetersPerSecSq;
+    inputs.accelerationYMetersPerSecSq = navX.getWorldLinearAccelY() * gravityMetersPerSecSq;
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream()
-            .map((Double value) -> Rotation2d.fromDegrees(-value))
-            .toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    SparkOdometryThread odometryThread = SparkOdometryThread.getInstance();
+    inputs.odometryYawTimestamps = odometryThread.readSignalTimestamps(yawPositionColumn).clone();
+    inputs.odometryYawPositionsRad = odometryThread.readColumn(yawPositionColumn).clone();
+    for (int i = 0; i < inputs.odometryYawPositionsRad.length; i++) {
+      inputs.odometryYawPositionsRad[i] =
+          Units.degreesToRadians(-inputs.odometryYawPositionsRad[i]);
+    }
+  }
+
+  @Override
+  public double getLatestOdometryYawRad() {
+    return Units.degreesToRadians(
+        -SparkOdometryThread.getInstance().getLatestValue(yawPositionColumn));
+  }
+
+  @Override
+  public double getLatestOdometryYawRateRadPerSec() {
+    return Units.degreesToRadians(
+        -SparkOdometryThread.getInstance().getLatestValue(yawVelocityColumn));
   }
 }
@@ -24,39 +24,57 @@ import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.units.measure.AngularVelocity;
-import java.util.Queue;
+import edu.wpi.first.units.measure.LinearAcceleration;
 
 /** IO implementation for Pigeon 2. */
 public class GyroIOPigeon2 implements GyroIO {
+  private static final double gravityMetersPerSecSq = 9.80665; // Accelerations are reported in g
   private final Pigeon2 pigeon = new Pigeon2(pigeonCanId);
   private final StatusSignal<Angle> yaw = pigeon.getYaw();
-  private final Queue<Double> yawPositionQueue;
-  private final Queue<Double> yawTimestampQueue;
+  private final int yawPositionColumn;
   private final StatusSignal<AngularVelocity> yawVelocity = pigeon.getAngularVelocityZWorld();
+  private final int yawVelocityColumn;
+  private final StatusSignal<LinearAcceleration> accelerationX = pigeon.getAccelerationX();
+  private final StatusSignal<LinearAcceleration> accelerationY = pigeon.getAccelerationY();
 
   public GyroIOPigeon2() {
     pigeon.getConfigurator().apply(new Pigeon2Configuration());
     pigeon.getConfigurator().setYaw(0.0);
-    yaw.setUpdateFrequency(odometryFrequency);
-    yawVelocity.setUpdateFrequency(50.0);
+    BaseStatusSignal.setUpdateFrequencyForAll(odometryFrequency, yaw, yawVelocity);
+    BaseStatusSignal.setUpdateFrequencyForAll(50.0, accelerationX, accelerationY);
     pigeon.optimizeBusUtilization();
-    yawTimestampQueue = SparkOdometryThread.getInstance().makeTimestampQueue();
-    yawPositionQueue = SparkOdometryThread.getInstance().registerSignal(yaw::getValueAsDouble);
+    // The thread refreshes its own copies of the signals so it can use the CAN timestamps
+    yawPositionColumn = SparkOdometryThread.getInstance().registerSignal(yaw.clone());
+    yawVelocityColumn = SparkOdometryThread.getInstance().registerSignal(yawVelocity.clone());
   }
 
   @Override
   public void updateInputs(GyroIOInputs inputs) {
-    inputs.connected = BaseStatusSignal.refreshAll(yaw, yawVelocity).equals(StatusCode.OK);
+    inputs.connected =
+        BaseStatusSignal.refreshAll(yaw, yawVelocity, accelerationX, accelerationY)
+            .equals(StatusCode.OK);
     inputs.yawPosition = Rotation2d.fromDegrees(yaw.getValueAsDouble());
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(yawVelocity.getValueAsDouble());
+    inputs.accelerationXMetersPerSecSq = accelerationX.getValueAsDouble() * gravityMetersPerSecSq;
+    inputs.accelerationYMetersPerSecSq = accelerationY.getValueAsDouble() * gravityMetersPerSecSq;
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream()
-            .map((Double value) -> Rotation2d.fromDegrees(value))
-            .toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    SparkOdometryThread odometryThread = SparkOdometryThread.getInstance();
+    inputs.odometryYawTimestamps = odometryThread.readSignalTimestamps(yawPositionColumn).clone();
+    inputs.odometryYawPositionsRad = odometryThread.readColumn(yawPositionColumn).clone();
+    for (int i = 0; i < inputs.odometryYawPositionsRad.length; i++) {
+      inputs.odometryYawPositionsRad[i] = Units.degreesToRadians(inputs.odometryYawPositionsRad[i]);
+    }
+  }
+
+  @Override
+  public double getLatestOdometryYawRad() {
+    return Units.degreesToRadians(
+        SparkOdometryThread.getInstance().getLatestValue(yawPositionColumn));
+  }
+
+  @Override
+  public double getLatestOdometryYawRateRadPerSec() {
+    return Units.degreesToRadians(
+        SparkOdometryThread.getInstance().getLatestValue(yawVelocityColumn));
   }
 }
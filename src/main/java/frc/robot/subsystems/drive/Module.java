@@ -25,15 +25,18 @@ import org.littletonrobotics.junction.Logger;
 public class Module {
   private final ModuleIO io;
   private final ModuleIOInputsAutoLogged inputs = new ModuleIOInputsAutoLogged();
-  private final int index;
+  private final String logKey;
 
   private final Alert driveDisconnectedAlert;
   private final Alert turnDisconnectedAlert;
+
+  // Reused every cycle, only grows if a cycle has more samples than any cycle before it
   private SwerveModulePosition[] odometryPositions = new SwerveModulePosition[] {};
+  private int lastPositionIndex = 0; // Last sample of the previous cycle
 
   public Module(ModuleIO io, int index) {
     this.io = io;
-    this.index = index;
+    logKey = "Drive/Module" + Integer.toString(index);
     driveDisconnectedAlert =
         new Alert(
             "Disconnected drive motor on module " + Integer.toString(index) + ".",
@@ -45,15 +48,34 @@ public class Module {
 
   public void periodic() {
     io.updateInputs(inputs);
-    Logger.processInputs("Drive/Module" + Integer.toString(index), inputs);
+    Logger.processInputs(logKey, inputs);
 
-    // Calculate positions for odometry
+    // Calculate positions for odometry, updating the existing objects in place
     int sampleCount = inputs.odometryTimestamps.length; // All signals are sampled together
-    odometryPositions = new SwerveModulePosition[sampleCount];
+    if (odometryPositions.length < sampleCount) {
+      growOdometryPositions(sampleCount);
+    }
     for (int i = 0; i < sampleCount; i++) {
-      double positionMeters = inputs.odometryDrivePositionsRad[i] * wheelRadiusMeters;
-      Rotation2d angle = inputs.odometryTurnPositions[i];
-      odometryPositions[i] = new SwerveModulePosition(positionMeters, angle);
+      // Samples that failed to read keep the previous position, see isOdometryValid()
+      if (!isOdometryValid(i)) {
+        SwerveModulePosition previous = odometryPositions[i > 0 ? i - 1 : lastPositionIndex];
+        odometryPositions[i].distanceMeters = previous.distanceMeters;
+        odometryPositions[i].angle = previous.angle;
+        continue;
+      }
+
+      SwerveModulePosition position = odometryPositions[i];
+      position.distanceMeters = inputs.odometryDrivePositionsRad[i] * wheelRadiusMeters;
+
+      // Rotation2d is immutable, so only create a new one when the module actually turned
+      double angleRad = inputs.odometryTurnPositionsRad[i];
+      if (position.angle.getRadians() != angleRad) {
+        position.angle = new Rotation2d(angleRad);
+      }
+    }
+
+    if (sampleCount > 0) {
+      lastPositionIndex = sampleCount - 1;
     }
 
     // Update alerts
@@ -61,11 +83,29 @@ public class Module {
     turnDisconnectedAlert.set(!inputs.turnConnected);
   }
 
+  private void growOdometryPositions(int size) {
+    SwerveModulePosition[] newPositions = new SwerveModulePosition[size];
+    System.arraycopy(odometryPositions, 0, newPositions, 0, odometryPositions.length);
+    for (int i = odometryPositions.length; i < size; i++) {
+      newPositions[i] = new SwerveModulePosition();
+    }
+    odometryPositions = newPositions;
+  }
+
   /** Runs the module with the specified setpoint state. Mutates the state to optimize it. */
   public void runSetpoint(SwerveModuleState state) {
+    runSetpoint(state, getAngle());
+  }
+
+  /**
+   * Runs the module with the specified setpoint state, optimized for a measured turn angle. Mutates
+   * the state to optimize it. Off the main thread, pass an angle from the odometry frame since the
+   * logged inputs can change at any time.
+   */
+  public void runSetpoint(SwerveModuleState state, Rotation2d currentAngle) {
     // Optimize velocity setpoint
-    state.optimize(getAngle());
-    state.cosineScale(inputs.turnPosition);
+    state.optimize(currentAngle);
+    state.cosineScale(currentAngle);
 
     // Apply setpoints
     io.setDriveVelocity(state.speedMetersPerSecond / wheelRadiusMeters);
@@ -84,6 +124,14 @@ public class Module {
     io.setTurnOpenLoop(0.0);
   }
 
+  /**
+   * Returns the turn angle in the latest odometry thread frame in radians, or NaN if it isn't
+   * available. Only call from an odometry thread frame listener.
+   */
+  public double getLatestOdometryTurnPositionRad() {
+    return io.getLatestOdometryTurnPositionRad();
+  }
+
   /** Returns the current turn angle of the module. */
   public Rotation2d getAngle() {
     return inputs.turnPosition;
@@ -109,11 +157,26 @@ public class Module {
     return new SwerveModuleState(getVelocityMetersPerSec(), getAngle());
   }
 
-  /** Returns the module positions received this cycle. */
+  /**
+   * Returns the module positions received this cycle. The array and its objects are reused every
+   * cycle and may be longer than the number of samples, so use the length of {@link
+   * #getOdometryTimestamps()} as the sample count.
+   */
   public SwerveModulePosition[] getOdometryPositions() {
     return odometryPositions;
   }
 
+  /**
+   * Returns whether a sample received this cycle can be used for odometry. Samples are unusable
+   * while either motor is disconnected or if the odometry thread couldn't read them.
+   */
+  public boolean isOdometryValid(int sampleIndex) {
+    return inputs.driveConnected
+        && inputs.turnConnected
+        && !Double.isNaN(inputs.odometryDrivePositionsRad[sampleIndex])
+        && !Double.isNaN(inputs.odometryTurnPositionsRad[sampleIndex]);
+  }
+
   /** Returns the timestamps of the samples received this cycle. */
   public double[] getOdometryTimestamps() {
     return inputs.odometryTimestamps;
@@ -0,0 +1,48 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+
+/**
+ * Reads each module's odometry samples as the wheel deltas for one chassis update at a time. The
+ * same delta objects are updated in place for every sample, so reading a sample never allocates.
+ */
+class ModuleDeltaTracker {
+  private final SwerveModulePosition[] deltas = new SwerveModulePosition[4];
+  private final boolean[] valid = new boolean[4];
+  private final boolean[] wasValid = new boolean[] {true, true, true, true};
+  private final double[] lastPositionsMeters = new double[4];
+
+  ModuleDeltaTracker() {
+    for (int i = 0; i < 4; i++) {
+      deltas[i] = new SwerveModulePosition();
+    }
+  }
+
+  /**
+   * Reads one sample from every module, after the modules have been updated for the cycle.
+   * Disconnected modules are left out, and a module that just came back is only used once it has a
+   * fresh position to measure from.
+   */
+  void update(Module[] modules, int sampleIndex) {
+    for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++) {
+      SwerveModulePosition position = modules[moduleIndex].getOdometryPositions()[sampleIndex];
+      boolean sampleValid = modules[moduleIndex].isOdometryValid(sampleIndex);
+      valid[moduleIndex] = sampleValid && wasValid[moduleIndex];
+      wasValid[moduleIndex] = sampleValid;
+      deltas[moduleIndex].distanceMeters =
+          position.distanceMeters - lastPositionsMeters[moduleIndex];
+      deltas[moduleIndex].angle = position.angle;
+      lastPositionsMeters[moduleIndex] = position.distanceMeters;
+    }
+  }
+
+  /** Returns the change in each module's position over the last sample read. */
+  SwerveModulePosition[] getDeltas() {
+    return deltas;
+  }
+
+  /** Returns whether each module's delta from the last sample read can be used. */
+  boolean[] getValid() {
+    return valid;
+  }
+}
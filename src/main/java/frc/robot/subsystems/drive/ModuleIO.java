@@ -33,12 +33,21 @@ public interface ModuleIO {
 
     public double[] odometryTimestamps = new double[] {};
     public double[] odometryDrivePositionsRad = new double[] {};
-    public Rotation2d[] odometryTurnPositions = new Rotation2d[] {};
+    public double[] odometryTurnPositionsRad = new double[] {};
   }
 
   /** Updates the set of loggable inputs. */
   public default void updateInputs(ModuleIOInputs inputs) {}
 
+  /**
+   * Returns the turn angle in the latest odometry thread frame in radians, or NaN if it couldn't be
+   * read or the module isn't read by the odometry thread. Only call from an odometry thread frame
+   * listener.
+   */
+  public default double getLatestOdometryTurnPositionRad() {
+    return Double.NaN;
+  }
+
   /** Run the drive motor at the specified open loop value. */
   public default void setDriveOpenLoop(double output) {}
 
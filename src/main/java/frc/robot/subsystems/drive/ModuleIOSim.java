@@ -80,15 +80,20 @@ public class ModuleIOSim implements ModuleIO {
 
     // Update turn inputs
     inputs.turnConnected = true;
-    inputs.turnPosition = new Rotation2d(turnSim.getAngularPositionRad());
+    // Rotation2d is immutable, so only create a new one when the module actually turned
+    double turnPositionRad = turnSim.getAngularPositionRad();
+    if (inputs.turnPosition.getRadians() != turnPositionRad) {
+      inputs.turnPosition = new Rotation2d(turnPositionRad);
+    }
     inputs.turnVelocityRadPerSec = turnSim.getAngularVelocityRadPerSec();
     inputs.turnAppliedVolts = turnAppliedVolts;
     inputs.turnCurrentAmps = Math.abs(turnSim.getCurrentDrawAmps());
 
-    // Update odometry inputs (50Hz because high-frequency odometry in sim doesn't matter)
+    // Update odometry inputs (50Hz because high-frequency odometry in sim doesn't matter). The
+    // arrays are new every cycle, AdvantageKit keeps a reference to the last logged ones.
     inputs.odometryTimestamps = new double[] {Timer.getFPGATimestamp()};
     inputs.odometryDrivePositionsRad = new double[] {inputs.drivePositionRad};
-    inputs.odometryTurnPositions = new Rotation2d[] {inputs.turnPosition};
+    inputs.odometryTurnPositionsRad = new double[] {inputs.turnPosition.getRadians()};
   }
 
   @Override
@@ -115,4 +120,14 @@ public class ModuleIOSim implements ModuleIO {
     turnClosedLoop = true;
     turnController.setSetpoint(rotation.getRadians());
   }
+
+  /** Returns the simulated distance the wheel has rolled, for tracking the true pose in sim. */
+  double getSimDrivePositionMeters() {
+    return driveSim.getAngularPositionRad() * wheelRadiusMeters;
+  }
+
+  /** Returns the simulated module angle, for tracking the true pose in sim. */
+  double getSimTurnPositionRad() {
+    return turnSim.getAngularPositionRad();
+  }
 }
@@ -33,7 +33,6 @@ import com.revrobotics.spark.config.SparkMaxConfig;
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.filter.Debouncer;
 import edu.wpi.first.math.geometry.Rotation2d;
-import java.util.Queue;
 import java.util.function.DoubleSupplier;
 
 /**
@@ -53,10 +52,9 @@ public class ModuleIOSpark implements ModuleIO {
   private final SparkClosedLoopController driveController;
   private final SparkClosedLoopController turnController;
 
-  // Queue inputs from odometry thread
-  private final Queue<Double> timestampQueue;
-  private final Queue<Double> drivePositionQueue;
-  private final Queue<Double> turnPositionQueue;
+  // Frame columns from odometry thread
+  private final int drivePositionColumn;
+  private final int turnPositionColumn;
 
   // Connection debouncers
   private final Debouncer driveConnectedDebounce = new Debouncer(0.5);
@@ -168,11 +166,10 @@ public class ModuleIOSpark implements ModuleIO {
             turnSpark.configure(
                 turnConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters));
 
-    // Create odometry queues
-    timestampQueue = SparkOdometryThread.getInstance().makeTimestampQueue();
-    drivePositionQueue =
+    // Register odometry signals
+    drivePositionColumn =
         SparkOdometryThread.getInstance().registerSignal(driveSpark, driveEncoder::getPosition);
-    turnPositionQueue =
+    turnPositionColumn =
         SparkOdometryThread.getInstance().registerSignal(turnSpark, turnEncoder::getPosition);
   }
 
@@ -203,18 +200,22 @@ public class ModuleIOSpark implements ModuleIO {
     ifOk(turnSpark, turnSpark::getOutputCurrent, (value) -> inputs.turnCurrentAmps = value);
     inputs.turnConnected = turnConnectedDebounce.calculate(!sparkStickyFault);
 
-    // Update odometry inputs
-    inputs.odometryTimestamps =
-        timestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream()
-            .map((Double value) -> new Rotation2d(value).minus(zeroRotation))
-            .toArray(Rotation2d[]::new);
-    timestampQueue.clear();
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    // Update odometry inputs, copying the latched arrays since the thread reuses them
+    SparkOdometryThread odometryThread = SparkOdometryThread.getInstance();
+    inputs.odometryTimestamps = odometryThread.readTimestamps().clone();
+    inputs.odometryDrivePositionsRad = odometryThread.readColumn(drivePositionColumn).clone();
+    inputs.odometryTurnPositionsRad = odometryThread.readColumn(turnPositionColumn).clone();
+    for (int i = 0; i < inputs.odometryTurnPositionsRad.length; i++) {
+      inputs.odometryTurnPositionsRad[i] =
+          MathUtil.angleModulus(inputs.odometryTurnPositionsRad[i] - zeroRotation.getRadians());
+    }
+  }
+
+  @Override
+  public double getLatestOdometryTurnPositionRad() {
+    return MathUtil.angleModulus(
+        SparkOdometryThread.getInstance().getLatestValue(turnPositionColumn)
+            - zeroRotation.getRadians());
   }
 
   @Override
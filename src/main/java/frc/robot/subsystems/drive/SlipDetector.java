@@ -0,0 +1,185 @@
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.*;
+
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+
+/**
+ * Solves the chassis motion for one odometry sample while checking the modules against each other
+ * and against the gyro.
+ *
+ * <p>With the rotation known, every module gives its own estimate of the chassis translation. A
+ * module whose estimate disagrees with the average of the others by more than {@link
+ * DriveConstants#slipVelocityThreshold} is spinning out or being pushed, so it is left out of the
+ * solution. Separately, the rotation solved from the wheels is compared with the gyro to catch
+ * slip that affects several modules at once. All math uses primitive fields, so solving a sample
+ * never allocates.
+ *
+ * <p>Modules that aren't connected are left out up front, and the motion is solved from whichever
+ * modules remain plus the gyro. The slip checks need enough modules to compare, so the module
+ * check is skipped with fewer than three modules and the gyro check with fewer than two.
+ */
+public class SlipDetector {
+  private final double[] moduleDx = new double[4];
+  private final double[] moduleDy = new double[4];
+  private final boolean[] included = new boolean[4];
+
+  private double dxMeters = 0.0;
+  private double dyMeters = 0.0;
+  private double dthetaRad = 0.0;
+  private int excludedModule = -1;
+  private int usedModuleCount = 4;
+  private boolean gyroMismatch = false;
+
+  /**
+   * Solves the robot relative motion for one sample.
+   *
+   * @param moduleDeltas The change in each module's position since the last sample.
+   * @param moduleValid Whether each module's delta can be used, false if it's disconnected.
+   * @param gyroDeltaRad The change in gyro yaw since the last sample, or NaN if the gyro isn't
+   *     available.
+   * @param dtSeconds The time since the last sample.
+   */
+  public void update(
+      SwerveModulePosition[] moduleDeltas,
+      boolean[] moduleValid,
+      double gyroDeltaRad,
+      double dtSeconds) {
+    int validCount = 0;
+    for (int i = 0; i < 4; i++) {
+      moduleDx[i] = moduleDeltas[i].distanceMeters * moduleDeltas[i].angle.getCos();
+      moduleDy[i] = moduleDeltas[i].distanceMeters * moduleDeltas[i].angle.getSin();
+      included[i] = moduleValid[i];
+      if (moduleValid[i]) {
+        validCount++;
+      }
+    }
+    usedModuleCount = validCount;
+    excludedModule = -1;
+
+    // Cross-check the rotation from the wheels against the gyro
+    boolean hasGyro = !Double.isNaN(gyroDeltaRad);
+    double wheelDeltaRad = validCount >= 2 ? solveRotation() : 0.0;
+    gyroMismatch =
+        hasGyro
+            && validCount >= 2
+            && Math.abs(wheelDeltaRad - gyroDeltaRad) > gyroMismatchThreshold * dtSeconds;
+    dthetaRad = hasGyro ? gyroDeltaRad : wheelDeltaRad;
+
+    // Leave out the module that disagrees most with the others, if it's past the threshold
+    if (validCount >= 3) {
+      double worstError = slipVelocityThreshold * dtSeconds;
+      for (int i = 0; i < 4; i++) {
+        if (!included[i]) {
+          continue;
+        }
+        double othersDx = 0.0;
+        double othersDy = 0.0;
+        for (int j = 0; j < 4; j++) {
+          if (j != i && included[j]) {
+            othersDx += translationX(j) / (validCount - 1);
+            othersDy += translationY(j) / (validCount - 1);
+          }
+        }
+        double error = Math.hypot(translationX(i) - othersDx, translationY(i) - othersDy);
+        if (error > worstError) {
+          worstError = error;
+          excludedModule = i;
+        }
+      }
+      if (excludedModule >= 0) {
+        included[excludedModule] = false;
+        usedModuleCount--;
+        if (!hasGyro) {
+          dthetaRad = solveRotation();
+        }
+      }
+    }
+
+    // Average the translation from the remaining modules, with none left only the gyro is usable
+    dxMeters = 0.0;
+    dyMeters = 0.0;
+    for (int i = 0; i < 4; i++) {
+      if (included[i]) {
+        dxMeters += translationX(i) / usedModuleCount;
+        dyMeters += translationY(i) / usedModuleCount;
+      }
+    }
+  }
+
+  /** Returns the robot relative x motion from the last update in meters. */
+  public double getDxMeters() {
+    return dxMeters;
+  }
+
+  /** Returns the robot relative y motion from the last update in meters. */
+  public double getDyMeters() {
+    return dyMeters;
+  }
+
+  /** Returns the rotation from the last update in radians, from the gyro when available. */
+  public double getDthetaRad() {
+    return dthetaRad;
+  }
+
+  /** Returns the module left out of the last update, or -1 if all modules agreed. */
+  public int getExcludedModule() {
+    return excludedModule;
+  }
+
+  /** Returns how many modules were used to solve the last update. */
+  public int getUsedModuleCount() {
+    return usedModuleCount;
+  }
+
+  /** Returns whether the wheels and gyro disagreed about the rotation in the last update. */
+  public boolean isGyroMismatch() {
+    return gyroMismatch;
+  }
+
+  /** Returns whether the last update looked like wheel slip. */
+  public boolean isSlipping() {
+    return excludedModule >= 0 || gyroMismatch;
+  }
+
+  /**
+   * Returns the least squares rotation of the included modules, measured about their centroid so
+   * that it stays correct with a module left out.
+   */
+  private double solveRotation() {
+    double centerX = 0.0;
+    double centerY = 0.0;
+    int count = 0;
+    for (int i = 0; i < 4; i++) {
+      if (included[i]) {
+        centerX += moduleTranslations[i].getX();
+        centerY += moduleTranslations[i].getY();
+        count++;
+      }
+    }
+    centerX /= count;
+    centerY /= count;
+
+    double numerator = 0.0;
+    double denominator = 0.0;
+    for (int i = 0; i < 4; i++) {
+      if (included[i]) {
+        double x = moduleTranslations[i].getX() - centerX;
+        double y = moduleTranslations[i].getY() - centerY;
+        numerator += x * moduleDy[i] - y * moduleDx[i];
+        denominator += x * x + y * y;
+      }
+    }
+    return numerator / denominator;
+  }
+
+  /** Returns the chassis x translation implied by one module, after removing the rotation. */
+  private double translationX(int module) {
+    return moduleDx[module] + dthetaRad * moduleTranslations[module].getY();
+  }
+
+  /** Returns the chassis y translation implied by one module, after removing the rotation. */
+  private double translationY(int module) {
+    return moduleDy[module] - dthetaRad * moduleTranslations[module].getX();
+  }
+}
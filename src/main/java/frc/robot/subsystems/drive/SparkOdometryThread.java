@@ -13,29 +13,92 @@
 
 package frc.robot.subsystems.drive;
 
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
 import com.revrobotics.REVLibError;
 import com.revrobotics.spark.SparkBase;
 import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.RobotController;
+import frc.robot.util.FrameRingBuffer;
+import frc.robot.util.TimingHistogram;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.DoubleConsumer;
 import java.util.function.DoubleSupplier;
+import org.littletonrobotics.junction.Logger;
 
 /**
- * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Provides an interface for asynchronously reading high-frequency measurements.
  *
- * <p>This version includes an overload for Spark signals, which checks for errors to ensure that
- * all measurements in the sample are valid.
+ * <p>Every sample is stored as a single frame containing the timestamp and the value of every
+ * registered signal, so the gyro and all of the modules always see the same set of samples. This
+ * version includes an overload for Spark signals, which checks for errors to ensure that all
+ * measurements in the frame are valid, and an overload for Phoenix signals, which are refreshed
+ * by the thread. A Spark value that failed to read is stored as NaN rather than discarding the
+ * frame, so one disconnected device doesn't stop odometry for the others.
+ *
+ * <p>Frame timestamps are corrected for the age of the data rather than using the time the thread
+ * happened to run. Spark status frames don't carry a timestamp, so they are assumed to be half of
+ * a status period old on average. Phoenix signals report their own latency from the CAN
+ * timestamp, so each one gets its own timestamp column, see {@link
+ * #readSignalTimestamps(int)}.
+ *
+ * <p>Every IO implementation registers its signals and listeners when it is constructed, and the
+ * robot calls {@link #start()} once all of them exist. The thread never takes a lock. The robot
+ * calls {@link #latchSamples()} at the start of every cycle, before any subsystem runs, to take
+ * every frame published so far, then each IO implementation reads its own columns from that
+ * snapshot. Frame listeners run on the thread itself right after every frame, including frames
+ * with values that couldn't be read, for control loops that should run at the odometry rate.
  */
 public class SparkOdometryThread {
+  private static final int frameCapacity = 20;
+
+  // Average age of a Spark status frame when it is read, the frames are sent at the odometry rate
+  private static final double sparkStatusLatencySeconds = 0.5 / DriveConstants.odometryFrequency;
+
+  // Timing histograms use 0.1 ms bins up to 50 ms, summarized once per second of main loop cycles
+  private static final long histogramBinWidthMicros = 100;
+  private static final int histogramBinCount = 500;
+  private static final int telemetryWindowCycles = 50;
+
+  // One entry per frame column, the Spark is null for generic signals and the signal is null for
+  // Phoenix timestamp columns
   private final List<SparkBase> sparks = new ArrayList<>();
-  private final List<DoubleSupplier> sparkSignals = new ArrayList<>();
-  private final List<DoubleSupplier> genericSignals = new ArrayList<>();
-  private final List<Queue<Double>> sparkQueues = new ArrayList<>();
-  private final List<Queue<Double>> genericQueues = new ArrayList<>();
-  private final List<Queue<Double>> timestampQueues = new ArrayList<>();
+  private final List<DoubleSupplier> signals = new ArrayList<>();
+  private final List<Integer> timestampColumnList = new ArrayList<>(); // -1 for frame timestamps
+  private final List<BaseStatusSignal> phoenixSignalList = new ArrayList<>();
+  private int[] timestampColumns = new int[0];
+  private int[] phoenixTimestampColumns = new int[0]; // One per Phoenix signal
+  private final List<DoubleConsumer> frameListenerList = new ArrayList<>();
+  private DoubleConsumer[] frameListeners = new DoubleConsumer[0];
+  private BaseStatusSignal[] phoenixSignals = new BaseStatusSignal[0];
+  private int sparkSignalCount = 0;
+  private double[] frameValues = new double[0]; // Reused every sample
+  private FrameRingBuffer frames = null; // Created on start, once the frame width is known
+
+  // Registration happens before this is set, so the thread sees the complete lists once it is true
+  private volatile boolean started = false;
+
+  // Written only by the odometry thread
+  private volatile long publishedFrames = 0;
+  private volatile long droppedFrames = 0;
+  private volatile long invalidFrames = 0; // Frames with at least one NaN value
+  private volatile int frameHighWaterMark = 0;
+  private long lastStartMicros = 0;
+  private final TimingHistogram periodHistogram =
+      new TimingHistogram(histogramBinWidthMicros, histogramBinCount);
+  private final TimingHistogram runTimeHistogram =
+      new TimingHistogram(histogramBinWidthMicros, histogramBinCount);
+
+  // Frames taken by the last latch, only used by the main thread
+  private final double[] latchedTimestamps = new double[frameCapacity];
+  private double[] latchedValues = new double[0];
+  private int latchedFrameCount = 0;
+  private int telemetryCycles = 0;
+
+  // Reusable output arrays indexed by frame count, so reading a latch never allocates
+  private final double[][] timestampArrays = new double[frameCapacity + 1][];
+  private double[][][] columnArrays = new double[0][][];
 
   private static SparkOdometryThread instance = null;
   private Notifier notifier = new Notifier(this::run);
@@ -49,84 +112,253 @@ public class SparkOdometryThread {
 
   private SparkOdometryThread() {
     notifier.setName("OdometryThread");
+    for (int count = 0; count <= frameCapacity; count++) {
+      timestampArrays[count] = new double[count];
+    }
   }
 
+  /**
+   * Starts reading frames. Call once after every IO implementation is constructed, since signals
+   * and listeners can't be added after this. Does nothing if no signals were registered.
+   */
   public void start() {
-    if (timestampQueues.size() > 0) {
+    if (started) {
+      return;
+    }
+    if (signals.size() > 0) {
+      int width = signals.size();
+      frames = new FrameRingBuffer(frameCapacity, width);
+      phoenixSignals = phoenixSignalList.toArray(new BaseStatusSignal[0]);
+      timestampColumns = timestampColumnList.stream().mapToInt(Integer::intValue).toArray();
+      phoenixTimestampColumns = new int[phoenixSignals.length];
+      for (int i = 0, phoenixIndex = 0; i < width; i++) {
+        if (signals.get(i) == null) {
+          phoenixTimestampColumns[phoenixIndex++] = i;
+        }
+      }
+      frameListeners = frameListenerList.toArray(new DoubleConsumer[0]);
+      frameValues = new double[width];
+      latchedValues = new double[frameCapacity * width];
+      columnArrays = new double[width][frameCapacity + 1][];
+      for (int column = 0; column < width; column++) {
+        for (int count = 0; count <= frameCapacity; count++) {
+          columnArrays[column][count] = new double[count];
+        }
+      }
+
+      started = true;
       notifier.startPeriodic(1.0 / DriveConstants.odometryFrequency);
     }
   }
 
-  /** Registers a Spark signal to be read from the thread. */
-  public Queue<Double> registerSignal(SparkBase spark, DoubleSupplier signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
-    try {
-      sparks.add(spark);
-      sparkSignals.add(signal);
-      sparkQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
-    }
-    return queue;
+  /**
+   * Registers a Spark signal to be read from the thread.
+   *
+   * @return The frame column to pass to {@link #readColumn(int)}.
+   */
+  public int registerSignal(SparkBase spark, DoubleSupplier signal) {
+    int column = addColumn(spark, signal);
+    sparkSignalCount++;
+    return column;
+  }
+
+  /**
+   * Registers a Phoenix signal to be refreshed and read from the thread. The signal should not be
+   * refreshed anywhere else, use {@code clone()} to get a separate copy for the thread. The signal
+   * keeps its own CAN timestamp, read it with {@link #readSignalTimestamps(int)}.
+   *
+   * @return The frame column to pass to {@link #readColumn(int)}.
+   */
+  public int registerSignal(BaseStatusSignal signal) {
+    int column = addColumn(null, signal::getValueAsDouble);
+    int timestampColumn = addColumn(null, null);
+    timestampColumnList.set(column, timestampColumn);
+    phoenixSignalList.add(signal);
+    return column;
+  }
+
+  /**
+   * Registers a generic signal to be read from the thread.
+   *
+   * @return The frame column to pass to {@link #readColumn(int)}.
+   */
+  public int registerSignal(DoubleSupplier signal) {
+    return addColumn(null, signal);
+  }
+
+  /**
+   * Registers a listener that runs on the odometry thread after every frame, receiving the frame
+   * timestamp. Listeners can read the frame with {@link #getLatestValue(int)}, and must check for
+   * NaN values since frames with failed reads are passed on too. They delay the next sample, so
+   * they must be short and must not block.
+   */
+  public void addFrameListener(DoubleConsumer listener) {
+    if (started) {
+      throw new IllegalStateException("Frame listeners must be added before start()");
+    }
+    frameListenerList.add(listener);
+  }
+
+  /**
+   * Returns a column of the latest frame, NaN if a Spark value couldn't be read. Only call from a
+   * frame listener, the value is owned by the odometry thread.
+   */
+  public double getLatestValue(int column) {
+    return frameValues[column];
   }
 
-  /** Registers a generic signal to be read from the thread. */
-  public Queue<Double> registerSignal(DoubleSupplier signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
-    try {
-      genericSignals.add(signal);
-      genericQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
-    }
-    return queue;
+  private int addColumn(SparkBase spark, DoubleSupplier signal) {
+    if (started) {
+      throw new IllegalStateException("Odometry signals must be registered before start()");
+    }
+    sparks.add(spark);
+    signals.add(signal);
+    timestampColumnList.add(-1);
+    return signals.size() - 1;
   }
 
-  /** Returns a new queue that returns timestamp values for each sample. */
-  public Queue<Double> makeTimestampQueue() {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
-    try {
-      timestampQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
+  /**
+   * Takes every frame published since the last call. Call once per cycle before the command
+   * scheduler runs, so every subsystem reads its columns from the same frames.
+   */
+  public void latchSamples() {
+    if (frames == null) {
+      latchedFrameCount = 0;
+      return;
     }
-    return queue;
+    latchedFrameCount = frames.drainTo(latchedTimestamps, latchedValues);
+    System.arraycopy(
+        latchedTimestamps, 0, timestampArrays[latchedFrameCount], 0, latchedFrameCount);
+  }
+
+  /**
+   * Returns the timestamps of the frames taken by the last {@link #latchSamples()} call. The array
+   * is reused in later cycles, so copy it before storing it or putting it in logged inputs.
+   * AdvantageKit keeps a reference to logged arrays and only writes values that changed, so an
+   * array that is changed in place would compare equal to itself and never be logged again.
+   */
+  public double[] readTimestamps() {
+    return timestampArrays[latchedFrameCount];
+  }
+
+  /**
+   * Returns the values of one column for the frames taken by the last {@link #latchSamples()}
+   * call. The array is reused in later cycles, so copy it before storing it or putting it in
+   * logged inputs, see {@link #readTimestamps()}.
+   */
+  public double[] readColumn(int column) {
+    if (frames == null) {
+      return timestampArrays[0];
+    }
+    double[] values = columnArrays[column][latchedFrameCount];
+    int width = frames.width();
+    for (int i = 0; i < latchedFrameCount; i++) {
+      values[i] = latchedValues[i * width + column];
+    }
+    return values;
+  }
+
+  /**
+   * Returns when the values of one column were measured, for the frames taken by the last {@link
+   * #latchSamples()} call. Phoenix signals use their own CAN timestamps, other signals use the
+   * frame timestamps. The array is reused in later cycles, see {@link #readTimestamps()}.
+   */
+  public double[] readSignalTimestamps(int column) {
+    if (frames == null || timestampColumns[column] < 0) {
+      return readTimestamps();
+    }
+    return readColumn(timestampColumns[column]);
+  }
+
+  /**
+   * Logs the health of the thread. Call once per cycle after {@link #latchSamples()}.
+   *
+   * <p>The period is the time between notifier runs and should stay close to the odometry period,
+   * the run time is how long each sample took to read. Both are summarized over the last second.
+   */
+  public void logTelemetry() {
+    if (++telemetryCycles >= telemetryWindowCycles) {
+      telemetryCycles = 0;
+      periodHistogram.summarize();
+      runTimeHistogram.summarize();
+    }
+
+    Logger.recordOutput("Odometry/Thread/FramesPerCycle", latchedFrameCount);
+    Logger.recordOutput("Odometry/Thread/PublishedFrames", publishedFrames);
+    Logger.recordOutput("Odometry/Thread/DroppedFrames", droppedFrames);
+    Logger.recordOutput("Odometry/Thread/InvalidFrames", invalidFrames);
+    Logger.recordOutput("Odometry/Thread/FrameHighWaterMark", frameHighWaterMark);
+    Logger.recordOutput("Odometry/Thread/PeriodP50Seconds", periodHistogram.getP50Seconds());
+    Logger.recordOutput("Odometry/Thread/PeriodP99Seconds", periodHistogram.getP99Seconds());
+    Logger.recordOutput("Odometry/Thread/PeriodMaxSeconds", periodHistogram.getMaxSeconds());
+    Logger.recordOutput("Odometry/Thread/RunTimeP50Seconds", runTimeHistogram.getP50Seconds());
+    Logger.recordOutput("Odometry/Thread/RunTimeP99Seconds", runTimeHistogram.getP99Seconds());
+    Logger.recordOutput("Odometry/Thread/RunTimeMaxSeconds", runTimeHistogram.getMaxSeconds());
   }
 
   private void run() {
-    // Save new data to queues
-    Drive.odometryLock.lock();
-    try {
-      // Get sample timestamp
-      double timestamp = RobotController.getFPGATime() / 1e6;
-
-      // Read Spark values, mark invalid in case of error
-      double[] sparkValues = new double[sparkSignals.size()];
-      boolean isValid = true;
-      for (int i = 0; i < sparkSignals.size(); i++) {
-        sparkValues[i] = sparkSignals.get(i).getAsDouble();
-        if (sparks.get(i).getLastError() != REVLibError.kOk) {
-          isValid = false;
-        }
+    if (!started) {
+      return;
+    }
+
+    // Track the time between runs to catch a notifier that can't keep up
+    long startMicros = RobotController.getFPGATime();
+    if (lastStartMicros != 0) {
+      periodHistogram.record(startMicros - lastStartMicros);
+    }
+    lastStartMicros = startMicros;
+
+    // Refresh Phoenix signals, this only reads the latest received data and doesn't wait
+    boolean phoenixOk =
+        phoenixSignals.length == 0 || BaseStatusSignal.refreshAll(phoenixSignals) == StatusCode.OK;
+
+    // Estimate when the Spark data was measured by subtracting its average age
+    double readTimestamp = startMicros / 1e6;
+    double timestamp =
+        sparkSignalCount > 0 ? readTimestamp - sparkStatusLatencySeconds : readTimestamp;
+
+    // Stamp each Phoenix signal with its own CAN timestamp. The latency is only trusted after a
+    // successful refresh, otherwise the read time is used.
+    for (int i = 0; i < phoenixSignals.length; i++) {
+      frameValues[phoenixTimestampColumns[i]] =
+          phoenixOk ? readTimestamp - phoenixSignals[i].getTimestamp().getLatency() : readTimestamp;
+    }
+
+    // Read every signal into the frame, replacing values with NaN in case of a Spark error
+    boolean isValid = true;
+    for (int i = 0; i < signals.size(); i++) {
+      DoubleSupplier signal = signals.get(i);
+      if (signal == null) {
+        continue; // Phoenix timestamp, already set
+      }
+      frameValues[i] = signal.getAsDouble();
+      SparkBase spark = sparks.get(i);
+      if (spark != null && spark.getLastError() != REVLibError.kOk) {
+        frameValues[i] = Double.NaN;
+        isValid = false;
       }
+    }
+    if (!isValid) {
+      invalidFrames++;
+    }
 
-      // If valid, add values to queues
-      if (isValid) {
-        for (int i = 0; i < sparkSignals.size(); i++) {
-          sparkQueues.get(i).offer(sparkValues[i]);
-        }
-        for (int i = 0; i < genericSignals.size(); i++) {
-          genericQueues.get(i).offer(genericSignals.get(i).getAsDouble());
-        }
-        for (int i = 0; i < timestampQueues.size(); i++) {
-          timestampQueues.get(i).offer(timestamp);
-        }
+    // Publish the whole frame at once, or count it as dropped if the main loop has fallen behind
+    if (!frames.offer(timestamp, frameValues)) {
+      droppedFrames++;
+    } else {
+      publishedFrames++;
+      int pendingFrames = frames.size();
+      if (pendingFrames > frameHighWaterMark) {
+        frameHighWaterMark = pendingFrames;
       }
-    } finally {
-      Drive.odometryLock.unlock();
     }
+
+    // Run listeners on every frame, even if the main loop has fallen behind
+    for (DoubleConsumer listener : frameListeners) {
+      listener.accept(timestamp);
+    }
+
+    // Record how long the sample and listeners took, so we can confirm the thread never stalls
+    runTimeHistogram.record(RobotController.getFPGATime() - startMicros);
   }
 }
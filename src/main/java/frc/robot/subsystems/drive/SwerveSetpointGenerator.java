@@ -0,0 +1,254 @@
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.*;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Limits chassis speed setpoints so that every module can follow them, respecting the drive
+ * acceleration each wheel can actually produce and how fast each module can steer.
+ *
+ * <p>Each cycle the generator moves from the previous setpoint toward the requested speeds by the
+ * largest fraction that keeps all modules within their limits. Drive acceleration is limited by
+ * wheel friction and by the torque the drive motor can produce at its current speed and current
+ * limit. If the robot is stopped and a module has to turn a long way, the modules first turn in
+ * place before driving. All state is kept in primitive arrays, so generating a setpoint never
+ * allocates unless a module angle changes.
+ */
+public class SwerveSetpointGenerator {
+  private static final double epsilon = 1e-6;
+  private static final int steeringSearchIterations = 10;
+  private static final double gravity = 9.81; // Meters/sec^2
+  private static final double nominalVoltage = 12.0;
+  private static final double steeringVelocityFraction = 0.8; // Margin below free speed
+
+  private final double maxFrictionAcceleration = wheelCOF * gravity;
+  private final double maxSteeringVelocity =
+      turnGearbox.freeSpeedRadPerSec / turnMotorReduction * steeringVelocityFraction;
+
+  // Previous setpoint, as chassis speeds and the angle each module was pointed at
+  private double previousVx = 0.0;
+  private double previousVy = 0.0;
+  private double previousOmega = 0.0;
+  private final double[] previousAnglesRad = new double[4];
+
+  // Per-module scratch values, reused every cycle
+  private final double[] previousModuleVx = new double[4];
+  private final double[] previousModuleVy = new double[4];
+  private final double[] desiredModuleVx = new double[4];
+  private final double[] desiredModuleVy = new double[4];
+  private final double[] maxVelocityStep = new double[4];
+
+  private final SwerveModuleState[] setpointStates = new SwerveModuleState[4];
+
+  public SwerveSetpointGenerator() {
+    for (int i = 0; i < 4; i++) {
+      setpointStates[i] = new SwerveModuleState();
+    }
+  }
+
+  /**
+   * Returns module states that move toward the requested speeds as fast as the modules allow.
+   *
+   * @param desiredSpeeds The requested robot relative speeds.
+   * @param dtSeconds The time until the next setpoint is generated.
+   * @return The module setpoints (FL, FR, BL, BR). The array and its states are reused by the next
+   *     call.
+   */
+  public SwerveModuleState[] generate(ChassisSpeeds desiredSpeeds, double dtSeconds) {
+    // Scale the requested speeds down if any module would exceed its max speed
+    double desiredVx = desiredSpeeds.vxMetersPerSecond;
+    double desiredVy = desiredSpeeds.vyMetersPerSecond;
+    double desiredOmega = desiredSpeeds.omegaRadiansPerSecond;
+    double maxDesiredModuleSpeed = 0.0;
+    for (int i = 0; i < 4; i++) {
+      desiredModuleVx[i] = moduleVx(i, desiredVx, desiredOmega);
+      desiredModuleVy[i] = moduleVy(i, desiredVy, desiredOmega);
+      maxDesiredModuleSpeed =
+          Math.max(maxDesiredModuleSpeed, Math.hypot(desiredModuleVx[i], desiredModuleVy[i]));
+    }
+    if (maxDesiredModuleSpeed > maxSpeedMetersPerSec) {
+      double scale = maxSpeedMetersPerSec / maxDesiredModuleSpeed;
+      desiredVx *= scale;
+      desiredVy *= scale;
+      desiredOmega *= scale;
+      for (int i = 0; i < 4; i++) {
+        desiredModuleVx[i] *= scale;
+        desiredModuleVy[i] *= scale;
+      }
+    }
+
+    // Find how far each module can change its velocity this cycle
+    boolean stopped = true;
+    double maxSteeringStep = maxSteeringVelocity * dtSeconds;
+    for (int i = 0; i < 4; i++) {
+      previousModuleVx[i] = moduleVx(i, previousVx, previousOmega);
+      previousModuleVy[i] = moduleVy(i, previousVy, previousOmega);
+      double previousSpeed = Math.hypot(previousModuleVx[i], previousModuleVy[i]);
+      boolean accelerating = Math.hypot(desiredModuleVx[i], desiredModuleVy[i]) > previousSpeed;
+      maxVelocityStep[i] = getMaxAcceleration(previousSpeed, accelerating) * dtSeconds;
+      stopped &= previousSpeed < epsilon;
+    }
+
+    // When stopped, turn the modules in place until all of them point close enough to drive
+    if (stopped) {
+      boolean aligned = true;
+      for (int i = 0; i < 4; i++) {
+        if (Math.hypot(desiredModuleVx[i], desiredModuleVy[i]) >= epsilon) {
+          double error =
+              steeringError(
+                  previousAnglesRad[i], Math.atan2(desiredModuleVy[i], desiredModuleVx[i]));
+          aligned &= Math.abs(error) <= maxSteeringStep;
+        }
+      }
+      if (!aligned) {
+        for (int i = 0; i < 4; i++) {
+          if (Math.hypot(desiredModuleVx[i], desiredModuleVy[i]) >= epsilon) {
+            double error =
+                steeringError(
+                    previousAnglesRad[i], Math.atan2(desiredModuleVy[i], desiredModuleVx[i]));
+            previousAnglesRad[i] =
+                MathUtil.angleModulus(
+                    previousAnglesRad[i]
+                        + MathUtil.clamp(error, -maxSteeringStep, maxSteeringStep));
+          }
+        }
+        return setSetpoint(0.0, 0.0, 0.0);
+      }
+    }
+
+    // The velocity change is linear in the fraction, so the acceleration limit has a closed form
+    double fraction = 1.0;
+    for (int i = 0; i < 4; i++) {
+      double velocityChange =
+          Math.hypot(
+              desiredModuleVx[i] - previousModuleVx[i], desiredModuleVy[i] - previousModuleVy[i]);
+      if (velocityChange > maxVelocityStep[i]) {
+        fraction = Math.min(fraction, maxVelocityStep[i] / velocityChange);
+      }
+    }
+
+    // Search for the largest fraction that also respects the steering limit
+    if (!isSteeringFeasible(fraction, maxSteeringStep)) {
+      double low = 0.0;
+      double high = fraction;
+      for (int iteration = 0; iteration < steeringSearchIterations; iteration++) {
+        double mid = (low + high) / 2.0;
+        if (isSteeringFeasible(mid, maxSteeringStep)) {
+          low = mid;
+        } else {
+          high = mid;
+        }
+      }
+      fraction = low;
+    }
+
+    return setSetpoint(
+        previousVx + (desiredVx - previousVx) * fraction,
+        previousVy + (desiredVy - previousVy) * fraction,
+        previousOmega + (desiredOmega - previousOmega) * fraction);
+  }
+
+  /**
+   * Sets the angles the modules hold while stopped, for example to form an X. The next nonzero
+   * setpoint starts steering from these angles.
+   */
+  public void resetHeadings(Rotation2d[] headings) {
+    for (int i = 0; i < 4; i++) {
+      previousAnglesRad[i] = headings[i].getRadians();
+    }
+  }
+
+  /**
+   * Resets the generator to a stopped robot with the modules at the measured angles, for example
+   * while disabled.
+   */
+  public void reset(Rotation2d[] measuredAngles) {
+    previousVx = 0.0;
+    previousVy = 0.0;
+    previousOmega = 0.0;
+    resetHeadings(measuredAngles);
+  }
+
+  /** Returns whether every module can steer to its setpoint at the given fraction this cycle. */
+  private boolean isSteeringFeasible(double fraction, double maxSteeringStep) {
+    for (int i = 0; i < 4; i++) {
+      double vx = previousModuleVx[i] + (desiredModuleVx[i] - previousModuleVx[i]) * fraction;
+      double vy = previousModuleVy[i] + (desiredModuleVy[i] - previousModuleVy[i]) * fraction;
+      if (Math.hypot(vx, vy) < epsilon) {
+        continue; // Angle doesn't matter while the module is stopped
+      }
+      if (Math.abs(steeringError(previousAnglesRad[i], Math.atan2(vy, vx))) > maxSteeringStep) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Stores the new setpoint and writes the module states for it. */
+  private SwerveModuleState[] setSetpoint(double vx, double vy, double omega) {
+    previousVx = vx;
+    previousVy = vy;
+    previousOmega = omega;
+    for (int i = 0; i < 4; i++) {
+      double moduleVx = moduleVx(i, vx, omega);
+      double moduleVy = moduleVy(i, vy, omega);
+      SwerveModuleState state = setpointStates[i];
+      state.speedMetersPerSecond = Math.hypot(moduleVx, moduleVy);
+      if (state.speedMetersPerSecond >= epsilon) {
+        previousAnglesRad[i] = Math.atan2(moduleVy, moduleVx);
+      } else {
+        state.speedMetersPerSecond = 0.0; // Hold the previous angle
+      }
+
+      // Rotation2d is immutable, so only create a new one when the angle changed
+      if (state.angle.getRadians() != previousAnglesRad[i]) {
+        state.angle = new Rotation2d(previousAnglesRad[i]);
+      }
+    }
+    return setpointStates;
+  }
+
+  /**
+   * Returns the max acceleration of a module at a speed, limited by wheel friction and by the
+   * torque the drive motor can produce within its current limit. While speeding up, back EMF also
+   * reduces the current the motor can draw at that speed.
+   */
+  private double getMaxAcceleration(double speedMetersPerSec, boolean accelerating) {
+    double currentAmps = driveMotorCurrentLimit;
+    if (accelerating) {
+      double motorSpeedRadPerSec = speedMetersPerSec / wheelRadiusMeters * driveMotorReduction;
+      currentAmps =
+          Math.min(driveGearbox.getCurrent(motorSpeedRadPerSec, nominalVoltage), currentAmps);
+    }
+    double wheelForceNewtons =
+        driveGearbox.getTorque(currentAmps) * driveMotorReduction / wheelRadiusMeters;
+    double motorAcceleration = Math.max(wheelForceNewtons / (robotMassKg / 4.0), 0.0);
+    return Math.min(maxFrictionAcceleration, motorAcceleration);
+  }
+
+  /**
+   * Returns the shortest rotation from the current angle to point along the target direction,
+   * allowing the module to reverse its drive direction instead of turning more than 90 degrees.
+   */
+  private static double steeringError(double currentRad, double targetRad) {
+    double error = MathUtil.angleModulus(targetRad - currentRad);
+    if (error > Math.PI / 2.0) {
+      error -= Math.PI;
+    } else if (error < -Math.PI / 2.0) {
+      error += Math.PI;
+    }
+    return error;
+  }
+
+  private static double moduleVx(int module, double vx, double omega) {
+    return vx - omega * moduleTranslations[module].getY();
+  }
+
+  private static double moduleVy(int module, double vy, double omega) {
+    return vy + omega * moduleTranslations[module].getX();
+  }
+}
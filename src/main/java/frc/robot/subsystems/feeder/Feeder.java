@@ -7,6 +7,7 @@ public class Feeder extends SubsystemBase {
 
   private final FeederIO _feederIO;
   private final FeederIOInputsAutoLogged _feederInputs = new FeederIOInputsAutoLogged();
+  private double _feederSpeed = 0.0;
 
   /**
    * Creates a new Feeder subsystem.
@@ -30,11 +31,18 @@ public class Feeder extends SubsystemBase {
    * @param speed Duty cycle from -1.0 (full reverse) to 1.0 (full forward)
    */
   public void setFeederSpeed(double speed) {
+    _feederSpeed = speed;
     _feederIO.setMotorSpeed(speed);
   }
 
   /** Stops the feeder motor. */
   public void stop() {
+    _feederSpeed = 0.0;
     _feederIO.setMotorSpeed(0.0);
   }
+
+  /** Returns whether the feeder is pushing game pieces toward the shooter. */
+  public boolean isFeeding() {
+    return _feederSpeed > 0.0;
+  }
 }
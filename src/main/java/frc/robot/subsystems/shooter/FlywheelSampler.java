@@ -0,0 +1,81 @@
+package frc.robot.subsystems.shooter;
+
+import com.revrobotics.REVLibError;
+import com.revrobotics.spark.SparkBase;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
+import frc.robot.util.FrameRingBuffer;
+
+/**
+ * Samples the flywheel velocity and current on its own notifier, fast enough to see each shot
+ * between main loop cycles.
+ *
+ * <p>This is separate from the drive's odometry thread, so the shooter doesn't depend on the drive
+ * and a flywheel read error never marks an odometry frame as invalid. Frames are passed to the
+ * main loop through a {@link FrameRingBuffer}, and a value that couldn't be read is stored as NaN.
+ * Like the odometry thread, frame timestamps are moved back by half a status period, the average
+ * age of a Spark status frame when it is read.
+ */
+class FlywheelSampler {
+  private static final int frameCapacity = 20;
+  private static final int velocityIndex = 0;
+  private static final int currentIndex = 1;
+  private static final double sparkStatusLatencySeconds =
+      0.5 / ShooterConstants.FLYWHEEL_SAMPLE_FREQUENCY;
+
+  private final SparkBase spark;
+  private final FrameRingBuffer frames = new FrameRingBuffer(frameCapacity, 2);
+  private final double[] frameValues = new double[2]; // Only used by the notifier
+
+  // Frames taken by the last drain, only used by the main thread
+  private final double[] drainedTimestamps = new double[frameCapacity];
+  private final double[] drainedValues = new double[frameCapacity * 2];
+
+  private final Notifier notifier = new Notifier(this::run);
+
+  /** Creates a new FlywheelSampler and starts sampling. */
+  FlywheelSampler(SparkBase spark) {
+    this.spark = spark;
+    notifier.setName("FlywheelSampler");
+    notifier.startPeriodic(1.0 / ShooterConstants.FLYWHEEL_SAMPLE_FREQUENCY);
+  }
+
+  /**
+   * Takes every frame sampled since the last call. Call once per cycle from the main thread, then
+   * read the frames by index.
+   *
+   * @return The number of frames taken.
+   */
+  int drain() {
+    return frames.drainTo(drainedTimestamps, drainedValues);
+  }
+
+  /** Returns the timestamp of a frame taken by the last {@link #drain()} call. */
+  double getTimestamp(int frame) {
+    return drainedTimestamps[frame];
+  }
+
+  /** Returns the motor velocity in RPM of a frame taken by the last {@link #drain()} call. */
+  double getVelocityRPM(int frame) {
+    return drainedValues[frame * 2 + velocityIndex];
+  }
+
+  /** Returns the motor current in amps of a frame taken by the last {@link #drain()} call. */
+  double getCurrentAmps(int frame) {
+    return drainedValues[frame * 2 + currentIndex];
+  }
+
+  private void run() {
+    double timestamp = RobotController.getFPGATime() / 1e6 - sparkStatusLatencySeconds;
+    frameValues[velocityIndex] = readSignal(spark.getEncoder().getVelocity());
+    frameValues[currentIndex] = readSignal(spark.getOutputCurrent());
+
+    // Frames are dropped if the main loop has fallen behind
+    frames.offer(timestamp, frameValues);
+  }
+
+  /** Returns a value that was just read from the Spark, or NaN if the read failed. */
+  private double readSignal(double value) {
+    return spark.getLastError() == REVLibError.kOk ? value : Double.NaN;
+  }
+}
@@ -0,0 +1,101 @@
+package frc.robot.subsystems.shooter;
+
+import static frc.robot.subsystems.shooter.ShooterConstants.*;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.controller.LinearQuadraticRegulator;
+import edu.wpi.first.math.estimator.KalmanFilter;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.system.LinearSystem;
+import edu.wpi.first.math.system.LinearSystemLoop;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+
+/**
+ * Flywheel velocity controller that runs on the RIO, built on a state-space model of the flywheel.
+ *
+ * <p>The model is identified from the flywheel's kV and kA, which can be characterized from the
+ * logged ShooterIO voltage and velocity. A Kalman filter combines the model with the measured
+ * velocity, which smooths the noisy encoder reading without the lag of a plain filter. The output
+ * voltage is a model-based feedforward plus an LQR feedback on the filtered velocity, so the
+ * flywheel spins up at full voltage and recovers from a shot as fast as the motor allows instead of
+ * waiting for a PID to wind up. Velocities are motor radians per second.
+ */
+public class FlywheelStateSpaceController {
+  private final LinearSystemLoop<N1, N1, N1> loop;
+
+  // Reused every cycle
+  private final Matrix<N1, N1> reference = new Matrix<>(Nat.N1(), Nat.N1());
+  private final Matrix<N1, N1> measurement = new Matrix<>(Nat.N1(), Nat.N1());
+
+  /** Creates a new FlywheelStateSpaceController with the filter tuning from ShooterConstants. */
+  public FlywheelStateSpaceController() {
+    this(FLYWHEEL_MODEL_STD_DEV_RAD_PER_SEC, FLYWHEEL_ENCODER_STD_DEV_RAD_PER_SEC);
+  }
+
+  /**
+   * Creates a new FlywheelStateSpaceController.
+   *
+   * @param modelStdDevRadPerSec Kalman filter trust in the model, smaller is trusted more.
+   * @param encoderStdDevRadPerSec Kalman filter trust in the encoder, smaller is trusted more.
+   */
+  public FlywheelStateSpaceController(double modelStdDevRadPerSec, double encoderStdDevRadPerSec) {
+    LinearSystem<N1, N1, N1> plant =
+        LinearSystemId.identifyVelocitySystem(FLYWHEEL_KV, FLYWHEEL_KA);
+    KalmanFilter<N1, N1, N1> observer =
+        new KalmanFilter<>(
+            Nat.N1(),
+            Nat.N1(),
+            plant,
+            VecBuilder.fill(modelStdDevRadPerSec),
+            VecBuilder.fill(encoderStdDevRadPerSec),
+            FLYWHEEL_LOOP_PERIOD_SECONDS);
+    LinearQuadraticRegulator<N1, N1, N1> regulator =
+        new LinearQuadraticRegulator<>(
+            plant,
+            VecBuilder.fill(FLYWHEEL_LQR_VELOCITY_TOLERANCE_RAD_PER_SEC),
+            VecBuilder.fill(FLYWHEEL_LQR_CONTROL_EFFORT_VOLTS),
+            FLYWHEEL_LOOP_PERIOD_SECONDS);
+    loop =
+        new LinearSystemLoop<>(
+            plant,
+            regulator,
+            observer,
+            FLYWHEEL_MAX_VOLTAGE,
+            FLYWHEEL_LOOP_PERIOD_SECONDS);
+  }
+
+  /**
+   * Resets the filtered velocity to a measurement, for example when closed loop control starts.
+   *
+   * @param velocityRadPerSec The measured velocity.
+   */
+  public void reset(double velocityRadPerSec) {
+    measurement.set(0, 0, velocityRadPerSec);
+    loop.reset(measurement);
+  }
+
+  /**
+   * Runs one cycle of the loop.
+   *
+   * @param measuredVelocityRadPerSec The measured velocity.
+   * @param targetVelocityRadPerSec The velocity to reach.
+   * @param dtSeconds The time since the last cycle.
+   * @return The voltage to apply.
+   */
+  public double calculate(
+      double measuredVelocityRadPerSec, double targetVelocityRadPerSec, double dtSeconds) {
+    reference.set(0, 0, targetVelocityRadPerSec);
+    measurement.set(0, 0, measuredVelocityRadPerSec);
+    loop.setNextR(reference);
+    loop.correct(measurement);
+    loop.predict(dtSeconds);
+    return loop.getU(0);
+  }
+
+  /** Returns the filtered velocity estimate in radians per second. */
+  public double getEstimatedVelocityRadPerSec() {
+    return loop.getXHat(0);
+  }
+}
@@ -18,6 +18,7 @@ import frc.robot.HardwareConstants;
 
 public class RealShooterIO implements ShooterIO {
   private SparkMax _flywheelMotor;
+  private FlywheelSampler _sampler;
 
   public RealShooterIO() {
     configFlywheelMotor();
@@ -33,6 +34,10 @@ public class RealShooterIO implements ShooterIO {
         .smartCurrentLimit(ShooterConstants.SHOOTER_FLYWHEEL_SMART_CURRENT_LIMIT)
         .secondaryCurrentLimit(ShooterConstants.SHOOTER_FLYWHEEL_SECONDARY_CURRENT_LIMIT)
         .voltageCompensation(12.0);
+    config
+        .signals
+        .primaryEncoderVelocityPeriodMs((int) (1000.0 / ShooterConstants.FLYWHEEL_SAMPLE_FREQUENCY))
+        .outputCurrentPeriodMs((int) (1000.0 / ShooterConstants.FLYWHEEL_SAMPLE_FREQUENCY));
     config.closedLoop.pidf(
         ShooterConstants.SHOOTER_FLYWHEEL_PID_KP.get(),
         ShooterConstants.SHOOTER_FLYWHEEL_PID_KI.get(),
@@ -45,6 +50,9 @@ public class RealShooterIO implements ShooterIO {
         () ->
             _flywheelMotor.configure(
                 config, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters));
+
+    // Sample velocity and current between cycles, fast enough to see each shot
+    _sampler = new FlywheelSampler(_flywheelMotor);
   }
 
   public void updateInputs(ShooterIOInputs inputs) {
@@ -55,6 +63,17 @@ public class RealShooterIO implements ShooterIO {
     inputs._flywheelMotorVoltage =
         Volts.of(_flywheelMotor.getAppliedOutput() * _flywheelMotor.getBusVoltage());
     inputs._flywheelMotorCurrent = Amps.of(_flywheelMotor.getOutputCurrent());
+
+    // Logged arrays must be new every cycle, AdvantageKit keeps a reference to the last ones
+    int sampleCount = _sampler.drain();
+    inputs._flywheelSampleTimestamps = new double[sampleCount];
+    inputs._flywheelSampleVelocitiesRPM = new double[sampleCount];
+    inputs._flywheelSampleCurrentsAmps = new double[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs._flywheelSampleTimestamps[i] = _sampler.getTimestamp(i);
+      inputs._flywheelSampleVelocitiesRPM[i] = _sampler.getVelocityRPM(i);
+      inputs._flywheelSampleCurrentsAmps[i] = _sampler.getCurrentAmps(i);
+    }
     // |================= END SHOOTER FLYWHEEL MOTOR LOGGING =================|
 
   }
@@ -70,6 +89,10 @@ public class RealShooterIO implements ShooterIO {
     this._flywheelMotor.set(output);
   }
 
+  public void setFlywheelVoltage(double volts) {
+    this._flywheelMotor.setVoltage(volts);
+  }
+
   public void stopFlywheel() {
     // reset the integral accumulator to prevent integral windup
     _flywheelMotor.getClosedLoopController().setIAccum(0);
@@ -8,10 +8,15 @@ import static edu.wpi.first.units.Units.Meters;
 import static edu.wpi.first.units.Units.RPM;
 import static edu.wpi.first.units.Units.RadiansPerSecond;
 import static edu.wpi.first.units.Units.RevolutionsPerSecond;
+import static edu.wpi.first.units.Units.Volts;
 
 import edu.wpi.first.units.measure.AngularVelocity;
 import edu.wpi.first.units.measure.Distance;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
+import frc.robot.subsystems.shooter.ShooterConstants.FlywheelControlMode;
 import org.littletonrobotics.junction.Logger;
 
 public class Shooter extends SubsystemBase {
@@ -19,10 +24,57 @@ public class Shooter extends SubsystemBase {
   private final ShooterIOInputsAutoLogged _shooterInputs = new ShooterIOInputsAutoLogged();
   private AngularVelocity _targetFlywheelSpeed;
 
-  /** Creates a new Shooter. */
+  // On-RIO velocity control, null when the Spark runs the velocity PIDF
+  private final FlywheelStateSpaceController _stateSpaceController;
+  private boolean _closedLoop = false; // Whether the last command was a velocity
+  private boolean _stateSpaceActive = false;
+  private double _lastControlTimestamp = 0.0;
+
+  // Shot detection from the high-rate samples
+  private final ShotDetector _shotDetector = new ShotDetector();
+
+  // Characterizes the flywheel kV and kA used by the state space loop
+  private final SysIdRoutine _sysId;
+
+  /** Creates a new Shooter, using the flywheel control mode from ShooterConstants. */
   public Shooter(ShooterIO shooterIO) {
+    this(shooterIO, ShooterConstants.FLYWHEEL_CONTROL_MODE);
+  }
+
+  /**
+   * Creates a new Shooter.
+   *
+   * @param shooterIO The flywheel IO.
+   * @param controlMode Whether the velocity loop runs on the Spark or on the RIO.
+   */
+  public Shooter(ShooterIO shooterIO, FlywheelControlMode controlMode) {
+    this(
+        shooterIO,
+        controlMode == FlywheelControlMode.STATE_SPACE ? new FlywheelStateSpaceController() : null);
+  }
+
+  /**
+   * Creates a new Shooter with a specific on-RIO velocity loop, for example one tuned differently
+   * than ShooterConstants.
+   *
+   * @param shooterIO The flywheel IO.
+   * @param stateSpaceController The on-RIO velocity loop, or null to run the Spark PIDF.
+   */
+  Shooter(ShooterIO shooterIO, FlywheelStateSpaceController stateSpaceController) {
     this._shooterIO = shooterIO;
+    this._stateSpaceController = stateSpaceController;
     this.stopFlywheels();
+
+    // Configure SysId
+    _sysId =
+        new SysIdRoutine(
+            new SysIdRoutine.Config(
+                null,
+                null,
+                null,
+                (state) -> Logger.recordOutput("Shooter/SysIdState", state.toString())),
+            new SysIdRoutine.Mechanism(
+                (voltage) -> runCharacterization(voltage.in(Volts)), null, this));
   }
 
   @Override
@@ -31,6 +83,56 @@ public class Shooter extends SubsystemBase {
     _shooterIO.updateInputs(_shooterInputs);
     Logger.processInputs("Shooter", _shooterInputs);
 
+    // Run the on-RIO velocity loop, starting from the measured speed when it's first enabled
+    if (_stateSpaceController != null) {
+      double timestamp = Timer.getFPGATimestamp();
+      if (_closedLoop) {
+        double measuredRadPerSec = _shooterInputs._flywheelMotorVelocity.in(RadiansPerSecond);
+        if (!_stateSpaceActive) {
+          _stateSpaceController.reset(measuredRadPerSec);
+          _stateSpaceActive = true;
+        }
+        double dt = timestamp - _lastControlTimestamp;
+        if (!(dt > 0.0 && dt < 5.0 * ShooterConstants.FLYWHEEL_LOOP_PERIOD_SECONDS)) {
+          dt = ShooterConstants.FLYWHEEL_LOOP_PERIOD_SECONDS;
+        }
+        double volts =
+            _stateSpaceController.calculate(
+                measuredRadPerSec, _targetFlywheelSpeed.in(RadiansPerSecond), dt);
+        _shooterIO.setFlywheelVoltage(volts);
+        Logger.recordOutput("Shooter/StateSpace/OutputVolts", volts);
+        Logger.recordOutput(
+            "Shooter/StateSpace/EstimatedVelocity",
+            _stateSpaceController.getEstimatedVelocityRadPerSec());
+      } else {
+        _stateSpaceActive = false;
+      }
+      _lastControlTimestamp = timestamp;
+    }
+
+    // Detect shots in the samples since the last cycle
+    double targetRPM = _closedLoop ? _targetFlywheelSpeed.in(RPM) : 0.0;
+    double[] sampleTimestamps = _shooterInputs._flywheelSampleTimestamps;
+    for (int i = 0; i < sampleTimestamps.length; i++) {
+      _shotDetector.update(
+          sampleTimestamps[i],
+          _shooterInputs._flywheelSampleVelocitiesRPM[i],
+          _shooterInputs._flywheelSampleCurrentsAmps[i],
+          targetRPM);
+    }
+    Logger.recordOutput("Shooter/Shots/Count", _shotDetector.getShotCount());
+    Logger.recordOutput("Shooter/Shots/LastTimestamp", _shotDetector.getLastShotTimestamp());
+    Logger.recordOutput("Shooter/Shots/Recovering", _shotDetector.isRecovering());
+    Logger.recordOutput(
+        "Shooter/Shots/LastRecoverySeconds", _shotDetector.getLastRecoverySeconds());
+    Logger.recordOutput(
+        "Shooter/Shots/AverageRecoverySeconds", _shotDetector.getAverageRecoverySeconds());
+    Logger.recordOutput("Shooter/Shots/MaxRecoverySeconds", _shotDetector.getMaxRecoverySeconds());
+    Logger.recordOutput(
+        "Shooter/Shots/ShotsPerSecond",
+        _shotDetector.getShotsPerSecond(
+            Timer.getFPGATimestamp(), ShooterConstants.SHOT_RATE_WINDOW_SECONDS));
+
     // LOGGING
     Logger.recordOutput(
         "Shooter/Current-Flywheel-Speed",
@@ -48,12 +150,17 @@ public class Shooter extends SubsystemBase {
 
   public void stopFlywheels() {
     _targetFlywheelSpeed = RadiansPerSecond.of(0);
+    _closedLoop = false;
     _shooterIO.stopFlywheel();
   }
 
   public void setFlywheelSpeed(AngularVelocity speed) {
     _targetFlywheelSpeed = speed;
-    _shooterIO.setFlywheelSpeed(speed);
+    _closedLoop = true;
+    if (_stateSpaceController == null) {
+      _shooterIO.setFlywheelSpeed(speed);
+    }
+    // Otherwise the voltage is applied by the state space loop in periodic()
   }
 
   /**
@@ -79,15 +186,42 @@ public class Shooter extends SubsystemBase {
   }
 
   public boolean areFlywheelsAtTargetSpeed() {
-    return Math.abs(
-            _targetFlywheelSpeed.in(RadiansPerSecond)
-                - _shooterInputs._flywheelMotorVelocity.in(RadiansPerSecond))
+    // The filtered estimate doesn't jump in and out of the band with encoder noise
+    double velocityRadPerSec =
+        _stateSpaceActive
+            ? _stateSpaceController.getEstimatedVelocityRadPerSec()
+            : _shooterInputs._flywheelMotorVelocity.in(RadiansPerSecond);
+    return Math.abs(_targetFlywheelSpeed.in(RadiansPerSecond) - velocityRadPerSec)
         <= Math.abs(
             _targetFlywheelSpeed.in(RadiansPerSecond) * ShooterConstants.FLYWHEEL_PID_TOLERANCE);
     // the tolerance is a percent error of the target speed we are allowed
   }
 
+  /** Returns whether the flywheel is recovering from a detected shot. */
+  public boolean isRecoveringFromShot() {
+    return _shotDetector.isRecovering();
+  }
+
   public void setFlyWheelDutyCycle(double output) {
+    _closedLoop = false;
     this._shooterIO.setFlyWheelDutyCycle(output);
   }
+
+  /** Runs the flywheel at a voltage for characterization, outside of any velocity loop. */
+  public void runCharacterization(double volts) {
+    _closedLoop = false;
+    _shooterIO.setFlywheelVoltage(volts);
+  }
+
+  /** Returns a command to run a quasistatic test in the specified direction. */
+  public Command sysIdQuasistatic(SysIdRoutine.Direction direction) {
+    return run(() -> runCharacterization(0.0))
+        .withTimeout(1.0)
+        .andThen(_sysId.quasistatic(direction));
+  }
+
+  /** Returns a command to run a dynamic test in the specified direction. */
+  public Command sysIdDynamic(SysIdRoutine.Direction direction) {
+    return run(() -> runCharacterization(0.0)).withTimeout(1.0).andThen(_sysId.dynamic(direction));
+  }
 }
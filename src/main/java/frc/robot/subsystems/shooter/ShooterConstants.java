@@ -3,8 +3,7 @@ package frc.robot.subsystems.shooter;
 import static edu.wpi.first.units.Units.RevolutionsPerSecond;
 
 import edu.wpi.first.units.measure.AngularVelocity;
-import java.util.Map;
-import java.util.TreeMap;
+import frc.robot.util.InterpolationTable;
 import org.littletonrobotics.junction.Logger;
 import org.littletonrobotics.junction.networktables.LoggedNetworkNumber;
 
@@ -24,6 +23,63 @@ public class ShooterConstants {
   public static final LoggedNetworkNumber SHOOTER_FLYWHEEL_PID_FF =
       new LoggedNetworkNumber("Shooter/FLYWHEEL_PID/kFF", 0.0000008);
 
+  /************************
+   *
+   * SHOOTER FLYWHEEL STATE SPACE CONSTANTS
+   *
+   * Velocities are motor radians per second. kV and kA should be characterized from the logged
+   * Shooter voltage and velocity, for example with SysId.
+   *
+   *************************/
+  public static enum FlywheelControlMode {
+    SPARK_PIDF, // Velocity PIDF on the Spark
+    STATE_SPACE // Kalman filter and LQR on the RIO, sending voltage
+  }
+
+  public static final FlywheelControlMode FLYWHEEL_CONTROL_MODE = FlywheelControlMode.SPARK_PIDF;
+
+  // TODO: characterize with the Shooter SysId routines, these are estimates from the motor specs
+  public static final double FLYWHEEL_KV = 0.0202; // Volts per rad/sec, about 12V at NEO free speed
+  public static final double FLYWHEEL_KA = 0.004; // Volts per rad/sec^2
+
+  // Kalman filter trust in the model and the encoder, smaller is trusted more
+  public static final double FLYWHEEL_MODEL_STD_DEV_RAD_PER_SEC = 3.0;
+  public static final double FLYWHEEL_ENCODER_STD_DEV_RAD_PER_SEC = 0.5;
+  public static final double FLYWHEEL_LQR_VELOCITY_TOLERANCE_RAD_PER_SEC = 8.0;
+  public static final double FLYWHEEL_LQR_CONTROL_EFFORT_VOLTS = 12.0;
+  public static final double FLYWHEEL_MAX_VOLTAGE = 12.0;
+  public static final double FLYWHEEL_LOOP_PERIOD_SECONDS = 0.02;
+
+  /***************
+   *
+   * SHOT DETECTION CONSTANTS
+   *
+   ***************/
+  public static final double FLYWHEEL_SAMPLE_FREQUENCY = 100.0; // Hz, enough to see each shot
+  // TODO: tune from logged shots
+  public static final double SHOT_DETECT_VELOCITY_DIP_FRACTION = 0.04; // Below the target
+  public static final double SHOT_DETECT_CURRENT_RISE_AMPS = 8.0; // Above the holding current
+  public static final double SHOT_DETECT_CURRENT_FILTER_GAIN = 0.05; // Per sample
+  public static final double SHOT_RATE_WINDOW_SECONDS = 2.0;
+
+  /***************
+   *
+   * FEED WHEN READY CONSTANTS
+   *
+   ***************/
+  public static final double SHOOT_FEED_DUTY_CYCLE = 0.75;
+  // How long the flywheel has to stay at speed before feeding starts or resumes
+  public static final double SHOOT_READY_DEBOUNCE_SECONDS = 0.06;
+
+  /***************
+   *
+   * SHOOTER SIM CONSTANTS
+   *
+   ***************/
+  public static final double SIM_FLYWHEEL_MOI_KG_M2 = 0.002;
+  public static final double SIM_SHOT_PERIOD_SECONDS = 0.25; // Time between balls while feeding
+  public static final double SIM_SHOT_VELOCITY_DROP_FRACTION = 0.15; // Speed lost per ball
+
   /***************
    *
    * SHOOTER MECHANICAL CONSTANTS
@@ -68,65 +124,59 @@ public class ShooterConstants {
   public static final LoggedNetworkNumber LOOKUP_SPEED_2 =
       new LoggedNetworkNumber("Shooter/Lookup/Speed2_RPM", 3000.0);
 
-  // Add more data points here as needed:
+  // Add more data points here as needed, and add them to the arrays below:
   // public static final LoggedNetworkNumber LOOKUP_DISTANCE_3 =
   //     new LoggedNetworkNumber("Shooter/Lookup/Distance3_meters", 5.0);
   // public static final LoggedNetworkNumber LOOKUP_SPEED_3 =
   //     new LoggedNetworkNumber("Shooter/Lookup/Speed3_RPM", 4500.0);
 
+  private static final LoggedNetworkNumber[] LOOKUP_DISTANCES =
+      new LoggedNetworkNumber[] {LOOKUP_DISTANCE_1, LOOKUP_DISTANCE_2};
+  private static final LoggedNetworkNumber[] LOOKUP_SPEEDS =
+      new LoggedNetworkNumber[] {LOOKUP_SPEED_1, LOOKUP_SPEED_2};
+
+  // MONOTONE_CUBIC follows a curved table smoothly once there are 3 or more points
+  public static final InterpolationTable.Mode LOOKUP_INTERPOLATION_MODE =
+      InterpolationTable.Mode.LINEAR;
+
+  // The compiled table and the tuning values it was built from, rebuilt only when one changes
+  private static final double[] lookupDistances = new double[LOOKUP_DISTANCES.length];
+  private static final double[] lookupSpeeds = new double[LOOKUP_SPEEDS.length];
+  private static InterpolationTable lookupTable = null;
+
   /**
-   * Builds the distance-to-speed lookup table from LoggedNetworkNumbers. TreeMap automatically
-   * sorts by distance for interpolation.
+   * Returns the distance-to-speed lookup table, compiled from the LoggedNetworkNumbers. The table
+   * is only rebuilt when one of the tuning values has changed since the last call.
    *
-   * @return TreeMap with distance (meters) as key and speed (RPM) as value
+   * @return Table with distance (meters) as input and speed (RPM) as output
    */
-  public static TreeMap<Double, Double> buildLookupTable() {
-    TreeMap<Double, Double> table = new TreeMap<>();
-    table.put(LOOKUP_DISTANCE_1.get(), LOOKUP_SPEED_1.get());
-    table.put(LOOKUP_DISTANCE_2.get(), LOOKUP_SPEED_2.get());
-    // Add more data points here:
-    // table.put(LOOKUP_DISTANCE_3.get(), LOOKUP_SPEED_3.get());
-    return table;
+  public static InterpolationTable getLookupTable() {
+    boolean changed = lookupTable == null;
+    for (int i = 0; i < LOOKUP_DISTANCES.length; i++) {
+      double distance = LOOKUP_DISTANCES[i].get();
+      double speed = LOOKUP_SPEEDS[i].get();
+      if (distance != lookupDistances[i] || speed != lookupSpeeds[i]) {
+        lookupDistances[i] = distance;
+        lookupSpeeds[i] = speed;
+        changed = true;
+      }
+    }
+    if (changed) {
+      lookupTable =
+          new InterpolationTable(lookupDistances, lookupSpeeds, LOOKUP_INTERPOLATION_MODE);
+    }
+    return lookupTable;
   }
 
   /**
-   * Interpolates shooter speed based on distance using the lookup table. Clamps to min/max speeds
-   * if distance is outside the table range.
+   * Interpolates shooter speed based on distance using the lookup table. Distances outside the
+   * table use the speed of the nearest end point, and the result is clamped to the min/max speeds.
    *
    * @param distanceMeters Distance to target in meters
    * @return Shooter speed in RPM
    */
   public static double getSpeedForDistance(double distanceMeters) {
-    TreeMap<Double, Double> table = buildLookupTable();
-
-    // Find surrounding data points
-    Map.Entry<Double, Double> lowerEntry = table.floorEntry(distanceMeters);
-    Map.Entry<Double, Double> upperEntry = table.ceilingEntry(distanceMeters);
-
-    // If exact match, return it
-    if (lowerEntry.getKey().equals(distanceMeters)) {
-      return lowerEntry.getValue();
-    }
-
-    double x1 = lowerEntry.getKey();
-    double y1 = lowerEntry.getValue();
-    double x2 = upperEntry.getKey();
-    double y2 = upperEntry.getValue();
-    double x = distanceMeters;
-
-    // LINEAR INTERPOLATION (comment/uncomment as needed)
-    double speed = y1 + (y2 - y1) * (x - x1) / (x2 - x1);
-
-    // QUADRATIC INTERPOLATION (uncomment to use, requires at least 3 points)
-    // For quadratic: y = a + b*x + c*x^2
-    // You'll need to fit a parabola through 3 points
-    // double speed = a + b * x + c * x * x;
-
-    // CUBIC INTERPOLATION (uncomment to use, requires at least 4 points)
-    // For cubic: y = a + b*x + c*x^2 + d*x^3
-    // You'll need to fit a cubic curve through 4 points
-    // double speed = a + b * x + c * x * x + d * x * x * x;
-
+    double speed = getLookupTable().get(distanceMeters);
     if (speed < MIN_FLYWHEEL_SPEED.in(RevolutionsPerSecond) * 60.0) {
       return MIN_FLYWHEEL_SPEED.in(RevolutionsPerSecond) * 60.0;
     } else if (speed > MAX_FLYWHEEL_SPEED.in(RevolutionsPerSecond) * 60.0) {
@@ -136,6 +186,27 @@ public class ShooterConstants {
     }
   }
 
+  /***********************
+   *
+   * SHOOT ON THE MOVE
+   *
+   **********************/
+  // TODO: tune, time from leaving the shooter to reaching the hub at each distance (meters)
+  public static final InterpolationTable TIME_OF_FLIGHT_TABLE =
+      new InterpolationTable(
+          new double[] {1.0, 3.0, 5.0},
+          new double[] {0.5, 0.8, 1.1},
+          InterpolationTable.Mode.MONOTONE_CUBIC);
+
+  // Time from commanding a shot to the ball leaving the shooter
+  public static final double SHOT_LATENCY_SECONDS = 0.1;
+
+  // Direction the shooter points relative to the front of the robot
+  public static final double SHOOTER_HEADING_OFFSET_RAD = 0.0;
+
+  public static final int SHOT_SOLVER_MAX_ITERATIONS = 5;
+  public static final double SHOT_SOLVER_TOLERANCE_METERS = 0.01;
+
   // Logs all of the ShooterConstants into Advantage Kit.
   static {
     Logger.recordOutput("Constants/Shooter/FLYWHEEL_GEAR_RATIO", FLYWHEEL_GEAR_RATIO);
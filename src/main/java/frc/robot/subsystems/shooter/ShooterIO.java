@@ -16,6 +16,11 @@ public interface ShooterIO {
     public AngularVelocity _flywheelMotorVelocity;
     public Voltage _flywheelMotorVoltage;
     public Current _flywheelMotorCurrent;
+
+    // High-rate samples since the last cycle, for detecting individual shots
+    public double[] _flywheelSampleTimestamps = new double[] {};
+    public double[] _flywheelSampleVelocitiesRPM = new double[] {};
+    public double[] _flywheelSampleCurrentsAmps = new double[] {};
     // |================= END FLYWHEEL MOTOR LOGGING =================|
 
   }
@@ -28,5 +33,8 @@ public interface ShooterIO {
 
   public default void setFlyWheelDutyCycle(double output) {}
 
+  /** Applies a voltage to the flywheel, used when velocity control runs on the RIO. */
+  public default void setFlywheelVoltage(double volts) {}
+
   public default void stopFlywheel() {}
 }
@@ -0,0 +1,162 @@
+package frc.robot.subsystems.shooter;
+
+import static edu.wpi.first.units.Units.Amps;
+import static edu.wpi.first.units.Units.Celsius;
+import static edu.wpi.first.units.Units.RotationsPerSecond;
+import static edu.wpi.first.units.Units.Volts;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.units.measure.AngularVelocity;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.FlywheelSim;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Physics sim implementation of shooter IO.
+ *
+ * <p>Velocity control mirrors the Spark's onboard PIDF, running at the Spark's 1 kHz loop rate with
+ * the same gains and units (motor RPM in, duty cycle out), so tuning carries over. The applied
+ * voltage is limited so the motor stays within its smart current limit. While the feeder is
+ * running, a ball is shot every {@link ShooterConstants#SIM_SHOT_PERIOD_SECONDS}, and each shot
+ * takes some speed out of the flywheel, so spin-up and recovery between shots can be tested
+ * without hardware. Velocities in the inputs are motor speeds, like the real IO.
+ */
+public class ShooterIOSim implements ShooterIO {
+  private static final double loopPeriodSeconds = 0.02;
+  private static final double sparkPeriodSeconds = 0.001;
+  private static final double nominalVoltage = 12.0; // Voltage compensation on the Spark
+  private static final int sparkStepsPerSample =
+      (int) Math.round(1.0 / ShooterConstants.FLYWHEEL_SAMPLE_FREQUENCY / sparkPeriodSeconds);
+  private static final int samplesPerLoop =
+      (int) Math.round(loopPeriodSeconds * ShooterConstants.FLYWHEEL_SAMPLE_FREQUENCY);
+
+  private final DCMotor gearbox = DCMotor.getNEO(1);
+  private final FlywheelSim flywheelSim;
+  private final BooleanSupplier feedingSupplier;
+
+  private boolean closedLoop = false;
+  private double setpointRPM = 0.0;
+  private double integralAccumulator = 0.0;
+  private double lastErrorRPM = 0.0;
+  private double openLoopVolts = 0.0;
+  private double appliedVolts = 0.0;
+  private double timeSinceLastShot = 0.0;
+
+  // High-rate samples, reused every cycle and copied into the inputs
+  private final double[] sampleTimestamps = new double[samplesPerLoop];
+  private final double[] sampleVelocitiesRPM = new double[samplesPerLoop];
+  private final double[] sampleCurrentsAmps = new double[samplesPerLoop];
+
+  /**
+   * Creates a new ShooterIOSim.
+   *
+   * @param feedingSupplier Whether the feeder is pushing balls into the shooter.
+   */
+  public ShooterIOSim(BooleanSupplier feedingSupplier) {
+    this.feedingSupplier = feedingSupplier;
+    flywheelSim =
+        new FlywheelSim(
+            LinearSystemId.createFlywheelSystem(
+                gearbox,
+                ShooterConstants.SIM_FLYWHEEL_MOI_KG_M2,
+                ShooterConstants.FLYWHEEL_GEAR_RATIO),
+            gearbox);
+  }
+
+  @Override
+  public void updateInputs(ShooterIOInputs inputs) {
+    // Take speed out of the flywheel for each ball shot while feeding
+    timeSinceLastShot += loopPeriodSeconds;
+    if (feedingSupplier.getAsBoolean()
+        && timeSinceLastShot >= ShooterConstants.SIM_SHOT_PERIOD_SECONDS
+        && getMotorVelocityRadPerSec() * 60.0 / (2.0 * Math.PI)
+            > ShooterConstants.MIN_FLYWHEEL_SPEED.in(RotationsPerSecond) * 60.0) {
+      timeSinceLastShot = 0.0;
+      flywheelSim.setAngularVelocity(
+          flywheelSim.getAngularVelocityRadPerSec()
+              * (1.0 - ShooterConstants.SIM_SHOT_VELOCITY_DROP_FRACTION));
+    }
+
+    // Run the Spark control loop and the physics together at the Spark's rate, sampling velocity
+    // and current at the sample rate like the real IO
+    double startTimestamp = Timer.getFPGATimestamp() - loopPeriodSeconds;
+    for (int sample = 0; sample < samplesPerLoop; sample++) {
+      for (int step = 0; step < sparkStepsPerSample; step++) {
+        double motorRadPerSec = getMotorVelocityRadPerSec();
+        double volts = closedLoop ? calculatePIDF(motorRadPerSec) : openLoopVolts;
+        appliedVolts =
+            limitCurrent(MathUtil.clamp(volts, -nominalVoltage, nominalVoltage), motorRadPerSec);
+        flywheelSim.setInputVoltage(appliedVolts);
+        flywheelSim.update(sparkPeriodSeconds);
+      }
+      sampleTimestamps[sample] =
+          startTimestamp + (sample + 1) * sparkStepsPerSample * sparkPeriodSeconds;
+      sampleVelocitiesRPM[sample] = getMotorVelocityRadPerSec() * 60.0 / (2.0 * Math.PI);
+      sampleCurrentsAmps[sample] = Math.abs(flywheelSim.getCurrentDrawAmps());
+    }
+
+    inputs._flywheelMotorTemperature = Celsius.of(25.0);
+    inputs._flywheelMotorVelocity =
+        RotationsPerSecond.of(getMotorVelocityRadPerSec() / (2.0 * Math.PI));
+    inputs._flywheelMotorVoltage = Volts.of(appliedVolts);
+    inputs._flywheelMotorCurrent = Amps.of(Math.abs(flywheelSim.getCurrentDrawAmps()));
+    // Logged arrays must be new every cycle, AdvantageKit keeps a reference to the last ones
+    inputs._flywheelSampleTimestamps = sampleTimestamps.clone();
+    inputs._flywheelSampleVelocitiesRPM = sampleVelocitiesRPM.clone();
+    inputs._flywheelSampleCurrentsAmps = sampleCurrentsAmps.clone();
+  }
+
+  @Override
+  public void setFlywheelSpeed(AngularVelocity speed) {
+    closedLoop = true;
+    setpointRPM = speed.in(RotationsPerSecond) * 60.0;
+  }
+
+  @Override
+  public void setFlyWheelDutyCycle(double output) {
+    closedLoop = false;
+    openLoopVolts = output * nominalVoltage;
+  }
+
+  @Override
+  public void setFlywheelVoltage(double volts) {
+    closedLoop = false;
+    openLoopVolts = volts;
+  }
+
+  @Override
+  public void stopFlywheel() {
+    // Matches the real IO, which clears the integral accumulator when stopping
+    closedLoop = false;
+    integralAccumulator = 0.0;
+    openLoopVolts = 0.0;
+  }
+
+  private double getMotorVelocityRadPerSec() {
+    return flywheelSim.getAngularVelocityRadPerSec() * ShooterConstants.FLYWHEEL_GEAR_RATIO;
+  }
+
+  /** Runs one cycle of the Spark's velocity PIDF, returning the output voltage. */
+  private double calculatePIDF(double motorRadPerSec) {
+    double errorRPM = setpointRPM - motorRadPerSec * 60.0 / (2.0 * Math.PI);
+    integralAccumulator += errorRPM;
+    double output =
+        ShooterConstants.SHOOTER_FLYWHEEL_PID_KP.get() * errorRPM
+            + ShooterConstants.SHOOTER_FLYWHEEL_PID_KI.get() * integralAccumulator
+            + ShooterConstants.SHOOTER_FLYWHEEL_PID_KD.get() * (errorRPM - lastErrorRPM)
+            + ShooterConstants.SHOOTER_FLYWHEEL_PID_FF.get() * setpointRPM;
+    lastErrorRPM = errorRPM;
+    return MathUtil.clamp(output, -1.0, 1.0) * nominalVoltage;
+  }
+
+  /** Limits a voltage so the motor current stays within the smart current limit. */
+  private double limitCurrent(double volts, double motorRadPerSec) {
+    double backEmfVolts = motorRadPerSec / gearbox.KvRadPerSecPerVolt;
+    double maxResistiveVolts =
+        ShooterConstants.SHOOTER_FLYWHEEL_SMART_CURRENT_LIMIT * gearbox.rOhms;
+    return MathUtil.clamp(
+        volts, backEmfVolts - maxResistiveVolts, backEmfVolts + maxResistiveVolts);
+  }
+}
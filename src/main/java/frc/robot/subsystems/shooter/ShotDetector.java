@@ -0,0 +1,129 @@
+package frc.robot.subsystems.shooter;
+
+import static frc.robot.subsystems.shooter.ShooterConstants.*;
+
+/**
+ * Detects shots from high-rate flywheel velocity and current samples, and measures how long the
+ * flywheel takes to recover from each one.
+ *
+ * <p>Detection is armed once the flywheel is within {@link ShooterConstants#FLYWHEEL_PID_TOLERANCE}
+ * of its target. A ball passing through the shooter takes energy out of the flywheel, so a shot is
+ * a velocity dip below the target together with a current rise above the current the flywheel
+ * drew while holding speed. After a shot the flywheel is recovering until it is back within the
+ * tolerance, and the time that takes is the recovery time. Changing the target disarms detection
+ * until the flywheel reaches the new speed. All state is kept in primitive fields, so processing
+ * samples never allocates.
+ */
+public class ShotDetector {
+  private static final int shotHistoryLength = 32; // For the shot rate
+
+  private boolean armed = false;
+  private boolean recovering = false;
+  private double holdingCurrentAmps = 0.0; // Smoothed current while at speed
+  private double lastTargetRPM = 0.0;
+
+  private long shotCount = 0;
+  private double lastShotTimestamp = Double.NaN;
+  private double lastRecoverySeconds = Double.NaN;
+  private double maxRecoverySeconds = 0.0;
+  private double totalRecoverySeconds = 0.0;
+  private long recoveryCount = 0;
+  private final double[] shotTimestamps = new double[shotHistoryLength];
+
+  /**
+   * Processes one sample.
+   *
+   * @param timestamp The time of the sample in seconds.
+   * @param velocityRPM The measured flywheel velocity.
+   * @param currentAmps The measured flywheel current.
+   * @param targetRPM The flywheel target, zero or less when not running closed loop.
+   */
+  public void update(double timestamp, double velocityRPM, double currentAmps, double targetRPM) {
+    if (!(targetRPM > 0.0)) {
+      armed = false; // Not running closed loop
+      recovering = false;
+      return;
+    }
+    if (Double.isNaN(velocityRPM) || Double.isNaN(currentAmps)) {
+      return; // The sample couldn't be read
+    }
+
+    // A new target moves the flywheel on purpose, so wait until it's at the new speed
+    if (Math.abs(targetRPM - lastTargetRPM) > targetRPM * FLYWHEEL_PID_TOLERANCE) {
+      armed = false;
+      recovering = false;
+    }
+    lastTargetRPM = targetRPM;
+
+    double error = targetRPM - velocityRPM;
+    boolean atSpeed = Math.abs(error) <= targetRPM * FLYWHEEL_PID_TOLERANCE;
+    if (recovering) {
+      if (atSpeed) {
+        recovering = false;
+        armed = true;
+        lastRecoverySeconds = timestamp - lastShotTimestamp;
+        maxRecoverySeconds = Math.max(maxRecoverySeconds, lastRecoverySeconds);
+        totalRecoverySeconds += lastRecoverySeconds;
+        recoveryCount++;
+      }
+    } else if (armed
+        && error > targetRPM * SHOT_DETECT_VELOCITY_DIP_FRACTION
+        && currentAmps - holdingCurrentAmps > SHOT_DETECT_CURRENT_RISE_AMPS) {
+      armed = false;
+      recovering = true;
+      lastShotTimestamp = timestamp;
+      shotTimestamps[(int) (shotCount % shotHistoryLength)] = timestamp;
+      shotCount++;
+    } else if (atSpeed) {
+      // Follow the current needed to hold speed, starting from the first sample at speed
+      holdingCurrentAmps =
+          armed
+              ? holdingCurrentAmps
+                  + (currentAmps - holdingCurrentAmps) * SHOT_DETECT_CURRENT_FILTER_GAIN
+              : currentAmps;
+      armed = true;
+    }
+  }
+
+  /** Returns whether the flywheel is recovering from a shot. */
+  public boolean isRecovering() {
+    return recovering;
+  }
+
+  /** Returns the number of shots detected since startup. */
+  public long getShotCount() {
+    return shotCount;
+  }
+
+  /** Returns the timestamp of the last shot, or NaN if there hasn't been one. */
+  public double getLastShotTimestamp() {
+    return lastShotTimestamp;
+  }
+
+  /** Returns how long the flywheel took to recover from the last shot, or NaN if none yet. */
+  public double getLastRecoverySeconds() {
+    return lastRecoverySeconds;
+  }
+
+  /** Returns the longest recovery since startup. */
+  public double getMaxRecoverySeconds() {
+    return maxRecoverySeconds;
+  }
+
+  /** Returns the average recovery since startup, or NaN if none yet. */
+  public double getAverageRecoverySeconds() {
+    return recoveryCount > 0 ? totalRecoverySeconds / recoveryCount : Double.NaN;
+  }
+
+  /** Returns the number of shots per second over the window ending at a timestamp. */
+  public double getShotsPerSecond(double timestamp, double windowSeconds) {
+    int count = 0;
+    long stored = Math.min(shotCount, shotHistoryLength);
+    for (int i = 0; i < stored; i++) {
+      if (timestamp - shotTimestamps[i] <= windowSeconds) {
+        count++;
+      }
+    }
+    return count / windowSeconds;
+  }
+}
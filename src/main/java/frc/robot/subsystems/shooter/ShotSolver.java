@@ -0,0 +1,127 @@
+package frc.robot.subsystems.shooter;
+
+import static frc.robot.subsystems.shooter.ShooterConstants.*;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import frc.robot.subsystems.vision.VisionConstants;
+import frc.robot.util.PoseHistory;
+import java.util.function.Supplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Solves for the flywheel speed and robot heading to score in the hub while driving.
+ *
+ * <p>A ball leaves the shooter with the robot's field-relative velocity, so aiming straight at the
+ * hub misses by that velocity times the time of flight. The solver instead aims at a virtual
+ * target, the hub moved back by the robot's velocity times the time of flight. Since the time of
+ * flight depends on the distance to the virtual target, the solver iterates until the virtual
+ * target stops moving. The robot position is first predicted forward by the shot latency, the
+ * time between a command and the ball leaving the shooter.
+ *
+ * <p>The solution is computed at most once per drive update, so the drive and shooter commands can
+ * both read it in the same cycle. All math uses primitive fields.
+ */
+public class ShotSolver {
+  private final Supplier<Pose2d> poseSupplier;
+  private final PoseHistory poseHistory;
+  private final double targetX = VisionConstants.TAG1.pose.getX();
+  private final double targetY = VisionConstants.TAG1.pose.getY();
+  private final PoseHistory.Sample velocitySample = new PoseHistory.Sample();
+
+  private double solvedTimestamp = Double.NaN;
+  private double distanceMeters = 0.0;
+  private double timeOfFlightSeconds = 0.0;
+  private double flywheelSpeedRPM = 0.0;
+  private double headingRad = 0.0;
+  private Rotation2d heading = new Rotation2d();
+  private int iterations = 0;
+
+  /**
+   * Creates a new ShotSolver.
+   *
+   * @param poseSupplier Supplier for the estimated robot pose, for example {@code Drive::getPose}.
+   * @param poseHistory The history of estimated poses and field-relative velocities, for example
+   *     from {@code Drive.getPoseHistory()}.
+   */
+  public ShotSolver(Supplier<Pose2d> poseSupplier, PoseHistory poseHistory) {
+    this.poseSupplier = poseSupplier;
+    this.poseHistory = poseHistory;
+  }
+
+  /** Returns the distance to the virtual target in meters. */
+  public double getDistanceMeters() {
+    update();
+    return distanceMeters;
+  }
+
+  /** Returns the flywheel speed in RPM for the distance to the virtual target. */
+  public double getFlywheelSpeedRPM() {
+    update();
+    return flywheelSpeedRPM;
+  }
+
+  /** Returns the field-relative heading that points the shooter at the virtual target. */
+  public Rotation2d getTargetHeading() {
+    update();
+    return heading;
+  }
+
+  /** Solves for the latest drive update, unless it has already been solved. */
+  private void update() {
+    double timestamp = poseHistory.getLatestTimestamp();
+    if (timestamp == solvedTimestamp) {
+      return;
+    }
+    solvedTimestamp = timestamp;
+
+    // Predict where the robot will be when the ball leaves
+    Pose2d pose = poseSupplier.get();
+    double vx = 0.0;
+    double vy = 0.0;
+    if (poseHistory.getLatest(velocitySample)) {
+      vx = velocitySample.vxMetersPerSec;
+      vy = velocitySample.vyMetersPerSec;
+    }
+    double robotX = pose.getX() + vx * SHOT_LATENCY_SECONDS;
+    double robotY = pose.getY() + vy * SHOT_LATENCY_SECONDS;
+
+    // Move the target back by the robot's velocity over the time of flight until it converges
+    double virtualX = targetX;
+    double virtualY = targetY;
+    iterations = 0;
+    while (iterations < SHOT_SOLVER_MAX_ITERATIONS) {
+      iterations++;
+      distanceMeters = Math.hypot(virtualX - robotX, virtualY - robotY);
+      timeOfFlightSeconds = TIME_OF_FLIGHT_TABLE.get(distanceMeters);
+      double nextX = targetX - vx * timeOfFlightSeconds;
+      double nextY = targetY - vy * timeOfFlightSeconds;
+      double change = Math.hypot(nextX - virtualX, nextY - virtualY);
+      virtualX = nextX;
+      virtualY = nextY;
+      if (change < SHOT_SOLVER_TOLERANCE_METERS) {
+        break;
+      }
+    }
+    distanceMeters = Math.hypot(virtualX - robotX, virtualY - robotY);
+    flywheelSpeedRPM = ShooterConstants.getSpeedForDistance(distanceMeters);
+
+    // Rotation2d is immutable, so only create a new one when the heading changed
+    double newHeadingRad =
+        MathUtil.angleModulus(
+            Math.atan2(virtualY - robotY, virtualX - robotX) - SHOOTER_HEADING_OFFSET_RAD);
+    if (newHeadingRad != headingRad) {
+      headingRad = newHeadingRad;
+      heading = new Rotation2d(headingRad);
+    }
+
+    Logger.recordOutput("ShotSolver/DistanceMeters", distanceMeters);
+    Logger.recordOutput("ShotSolver/TimeOfFlightSeconds", timeOfFlightSeconds);
+    Logger.recordOutput("ShotSolver/FlywheelSpeedRPM", flywheelSpeedRPM);
+    Logger.recordOutput("ShotSolver/HeadingRad", headingRad);
+    Logger.recordOutput("ShotSolver/VirtualTargetX", virtualX);
+    Logger.recordOutput("ShotSolver/VirtualTargetY", virtualY);
+    Logger.recordOutput("ShotSolver/Iterations", iterations);
+  }
+}
@@ -0,0 +1,182 @@
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import java.util.Arrays;
+
+/**
+ * Tag geometry from a field layout, stored in arrays indexed by tag ID so lookups are plain array
+ * reads instead of a search that returns a new {@code Optional} every time.
+ *
+ * <p>Poses, field to tag transforms, positions and the direction each tag faces are all computed
+ * once when the cache is built. Lookups for IDs that aren't in the layout return null (or NaN for
+ * primitive values), so callers should check {@link #hasTag(int)} first. The layout is assumed to
+ * stay the same after the cache is built.
+ */
+public class AprilTagCache {
+  private final int[] ids;
+  private final Pose3d[] poses3d;
+  private final Pose2d[] poses2d;
+  private final Transform3d[] fieldToTags;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] zs;
+  private final double[] normalXs;
+  private final double[] normalYs;
+  private final double[] normalZs;
+  private final double fieldLength;
+  private final double fieldWidth;
+
+  /**
+   * Creates a new AprilTagCache.
+   *
+   * @param layout The field layout to read the tags from.
+   */
+  public AprilTagCache(AprilTagFieldLayout layout) {
+    var tags = layout.getTags();
+    int maxId = -1;
+    for (AprilTag tag : tags) {
+      maxId = Math.max(maxId, tag.ID);
+    }
+
+    ids = new int[tags.size()];
+    poses3d = new Pose3d[maxId + 1];
+    poses2d = new Pose2d[maxId + 1];
+    fieldToTags = new Transform3d[maxId + 1];
+    xs = new double[maxId + 1];
+    ys = new double[maxId + 1];
+    zs = new double[maxId + 1];
+    normalXs = new double[maxId + 1];
+    normalYs = new double[maxId + 1];
+    normalZs = new double[maxId + 1];
+    Arrays.fill(xs, Double.NaN);
+    Arrays.fill(ys, Double.NaN);
+    Arrays.fill(zs, Double.NaN);
+    Arrays.fill(normalXs, Double.NaN);
+    Arrays.fill(normalYs, Double.NaN);
+    Arrays.fill(normalZs, Double.NaN);
+
+    for (int i = 0; i < tags.size(); i++) {
+      AprilTag tag = tags.get(i);
+      int id = tag.ID;
+      ids[i] = id;
+      poses3d[id] = tag.pose;
+      poses2d[id] = tag.pose.toPose2d();
+      fieldToTags[id] = new Transform3d(tag.pose.getTranslation(), tag.pose.getRotation());
+      xs[id] = tag.pose.getX();
+      ys[id] = tag.pose.getY();
+      zs[id] = tag.pose.getZ();
+
+      // Tags face along their +X axis
+      Translation3d normal = new Translation3d(1.0, 0.0, 0.0).rotateBy(tag.pose.getRotation());
+      normalXs[id] = normal.getX();
+      normalYs[id] = normal.getY();
+      normalZs[id] = normal.getZ();
+    }
+    fieldLength = layout.getFieldLength();
+    fieldWidth = layout.getFieldWidth();
+  }
+
+  /** Returns whether the layout has a tag with this ID. */
+  public boolean hasTag(int id) {
+    return id >= 0 && id < poses3d.length && poses3d[id] != null;
+  }
+
+  /**
+   * Returns the IDs of every tag in the layout. The array is shared, so it must not be modified.
+   */
+  public int[] getIds() {
+    return ids;
+  }
+
+  /** Returns the 3D pose of a tag, or null if it isn't in the layout. */
+  public Pose3d getPose3d(int id) {
+    return hasTag(id) ? poses3d[id] : null;
+  }
+
+  /** Returns the pose of a tag projected onto the floor, or null if it isn't in the layout. */
+  public Pose2d getPose2d(int id) {
+    return hasTag(id) ? poses2d[id] : null;
+  }
+
+  /** Returns the transform from the field origin to a tag, or null if it isn't in the layout. */
+  public Transform3d getFieldToTag(int id) {
+    return hasTag(id) ? fieldToTags[id] : null;
+  }
+
+  /** Returns the x position of a tag in meters, or NaN if it isn't in the layout. */
+  public double getX(int id) {
+    return hasTag(id) ? xs[id] : Double.NaN;
+  }
+
+  /** Returns the y position of a tag in meters, or NaN if it isn't in the layout. */
+  public double getY(int id) {
+    return hasTag(id) ? ys[id] : Double.NaN;
+  }
+
+  /** Returns the z position of a tag in meters, or NaN if it isn't in the layout. */
+  public double getZ(int id) {
+    return hasTag(id) ? zs[id] : Double.NaN;
+  }
+
+  /** Returns the x component of the unit vector a tag faces along, or NaN if not in the layout. */
+  public double getNormalX(int id) {
+    return hasTag(id) ? normalXs[id] : Double.NaN;
+  }
+
+  /** Returns the y component of the unit vector a tag faces along, or NaN if not in the layout. */
+  public double getNormalY(int id) {
+    return hasTag(id) ? normalYs[id] : Double.NaN;
+  }
+
+  /** Returns the z component of the unit vector a tag faces along, or NaN if not in the layout. */
+  public double getNormalZ(int id) {
+    return hasTag(id) ? normalZs[id] : Double.NaN;
+  }
+
+  /**
+   * Returns the distance along the floor from a point to a tag in meters, or NaN if the tag isn't
+   * in the layout.
+   */
+  public double getDistance2d(int id, double x, double y) {
+    return hasTag(id) ? Math.hypot(xs[id] - x, ys[id] - y) : Double.NaN;
+  }
+
+  /** Returns the distance along the floor from a pose to a tag in meters. */
+  public double getDistance2d(int id, Pose2d pose) {
+    return getDistance2d(id, pose.getX(), pose.getY());
+  }
+
+  /**
+   * Returns the straight line distance from a point to a tag in meters, or NaN if the tag isn't in
+   * the layout.
+   */
+  public double getDistance3d(int id, double x, double y, double z) {
+    if (!hasTag(id)) {
+      return Double.NaN;
+    }
+    double dx = xs[id] - x;
+    double dy = ys[id] - y;
+    double dz = zs[id] - z;
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  /** Returns the straight line distance from a pose to a tag in meters. */
+  public double getDistance3d(int id, Pose3d pose) {
+    return getDistance3d(id, pose.getX(), pose.getY(), pose.getZ());
+  }
+
+  /** Returns the length of the field in meters. */
+  public double getFieldLength() {
+    return fieldLength;
+  }
+
+  /** Returns the width of the field in meters. */
+  public double getFieldWidth() {
+    return fieldWidth;
+  }
+}
@@ -0,0 +1,104 @@
+package frc.robot.subsystems.vision;
+
+import static frc.robot.subsystems.vision.VisionConstants.*;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.networktables.DoubleArrayPublisher;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the robot heading to every Limelight for MegaTag 2.
+ *
+ * <p>{@link #update} is meant to run at the odometry rate, so the Limelights always solve with a
+ * fresh heading. Each update only publishes when the heading or its rate moved past a small
+ * deadband, so a robot sitting still sends nothing. Published values are followed by a
+ * NetworkTables flush so they go out right away, but a flush can block, so it runs on a separate
+ * low-priority thread that {@link #update} only wakes up. That thread flushes at most once per
+ * {@link VisionConstants#orientationMinFlushPeriodSeconds} for all cameras together; changes that
+ * arrive in between go out with the next flush. Updates must all come from the same thread.
+ */
+public class LimelightOrientationPublisher {
+  private final DoubleArrayPublisher[] publishers;
+  private final double[] orientation = new double[6]; // Reused for every publish
+
+  private double lastYawDeg = Double.NaN;
+  private double lastYawRateDegPerSec = Double.NaN;
+
+  // Set by the updating thread, cleared by the flush thread
+  private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+  private final Thread flushThread;
+
+  /**
+   * Creates a new LimelightOrientationPublisher.
+   *
+   * @param names The configured names of the Limelights.
+   */
+  public LimelightOrientationPublisher(String... names) {
+    publishers = new DoubleArrayPublisher[names.length];
+    for (int i = 0; i < names.length; i++) {
+      publishers[i] =
+          NetworkTableInstance.getDefault()
+              .getTable(names[i])
+              .getDoubleArrayTopic("robot_orientation_set")
+              .publish();
+    }
+
+    flushThread = new Thread(this::runFlushes, "LimelightOrientationFlush");
+    flushThread.setDaemon(true);
+    flushThread.setPriority(Thread.MIN_PRIORITY);
+    flushThread.start();
+  }
+
+  /**
+   * Publishes the heading if it changed and asks the flush thread to send it. Never blocks.
+   *
+   * @param timestampSeconds The timestamp of the heading.
+   * @param headingRad The estimated field-relative heading.
+   * @param headingRateRadPerSec The rate of change of the heading.
+   */
+  public void update(double timestampSeconds, double headingRad, double headingRateRadPerSec) {
+    double yawDeg = Math.toDegrees(headingRad);
+    double yawRateDegPerSec = Math.toDegrees(headingRateRadPerSec);
+    boolean changed =
+        Double.isNaN(lastYawDeg)
+            || Math.abs(MathUtil.inputModulus(yawDeg - lastYawDeg, -180.0, 180.0))
+                > orientationYawDeadbandDeg
+            || Math.abs(yawRateDegPerSec - lastYawRateDegPerSec)
+                > orientationYawRateDeadbandDegPerSec;
+    if (!changed) {
+      return;
+    }
+    lastYawDeg = yawDeg;
+    lastYawRateDegPerSec = yawRateDegPerSec;
+    orientation[0] = yawDeg;
+    orientation[1] = yawRateDegPerSec;
+    for (DoubleArrayPublisher publisher : publishers) {
+      publisher.set(orientation);
+    }
+    if (!flushRequested.getAndSet(true)) {
+      LockSupport.unpark(flushThread);
+    }
+  }
+
+  /** Flushes NetworkTables whenever new values were published, rate limited for all cameras. */
+  private void runFlushes() {
+    long minFlushPeriodNanos = (long) (orientationMinFlushPeriodSeconds * 1.0e9);
+    while (true) {
+      if (!flushRequested.getAndSet(false)) {
+        LockSupport.park(this);
+        continue; // Wakeups can be spurious, check the flag again
+      }
+      // Flush once for all cameras, recommended by Limelight so the heading isn't delayed
+      NetworkTableInstance.getDefault().flush();
+      try {
+        // Sleep instead of parking so new requests can't cut the flush period short
+        TimeUnit.NANOSECONDS.sleep(minFlushPeriodNanos);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+}
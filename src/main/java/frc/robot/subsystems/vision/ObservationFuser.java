@@ -0,0 +1,159 @@
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.subsystems.vision.Vision.VisionConsumer;
+import frc.robot.util.PoseHistory;
+
+/**
+ * Combines accepted vision observations from all cameras into one measurement per instant.
+ *
+ * <p>Observations are sorted by timestamp and grouped when they fall within a time window of the
+ * first observation in the group. Each group is combined with inverse-variance weighting, so the
+ * result is more certain than any single observation, and sent to the consumer once. If a pose
+ * history is available, each observation is first moved by the robot's motion between its
+ * timestamp and the group's latest timestamp. Observations are stored in primitive arrays that are
+ * reused every cycle.
+ */
+public class ObservationFuser {
+  private final double windowSeconds;
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+  private final double[] linearVariances;
+  private final double[] angularVariances;
+  private final int[] order;
+  private int count = 0;
+
+  private final PoseHistory.Sample observationSample = new PoseHistory.Sample();
+  private final PoseHistory.Sample groupSample = new PoseHistory.Sample();
+  private final Matrix<N3, N1> stdDevs = new Matrix<>(Nat.N3(), Nat.N1());
+
+  /**
+   * Creates a new ObservationFuser.
+   *
+   * @param capacity The most observations that can be added between calls to {@link #fuse}.
+   * @param windowSeconds Observations within this time of the first in a group are combined.
+   */
+  public ObservationFuser(int capacity, double windowSeconds) {
+    this.windowSeconds = windowSeconds;
+    timestamps = new double[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    thetas = new double[capacity];
+    linearVariances = new double[capacity];
+    angularVariances = new double[capacity];
+    order = new int[capacity];
+  }
+
+  /** Returns whether no more observations can be added before the next {@link #fuse}. */
+  public boolean isFull() {
+    return count == timestamps.length;
+  }
+
+  /** Adds an accepted observation. Ignored if the fuser is full. */
+  public void add(double timestamp, Pose2d pose, double linearStdDev, double angularStdDev) {
+    if (isFull()) {
+      return;
+    }
+    timestamps[count] = timestamp;
+    xs[count] = pose.getX();
+    ys[count] = pose.getY();
+    thetas[count] = pose.getRotation().getRadians();
+    linearVariances[count] = linearStdDev * linearStdDev;
+    angularVariances[count] = angularStdDev * angularStdDev;
+    count++;
+  }
+
+  /**
+   * Sends one combined measurement per group to the consumer and removes all observations.
+   *
+   * @param poseHistory Used to line up observations within a group, null to skip.
+   * @param consumer Receives the combined measurements.
+   * @return The number of measurements sent.
+   */
+  public int fuse(PoseHistory poseHistory, VisionConsumer consumer) {
+    // Sort by timestamp, the count is small so insertion sort is fine
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      int j = i - 1;
+      while (j >= 0 && timestamps[order[j]] > timestamps[index]) {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = index;
+    }
+
+    int measurementCount = 0;
+    int groupStart = 0;
+    while (groupStart < count) {
+      int groupEnd = groupStart + 1;
+      while (groupEnd < count
+          && timestamps[order[groupEnd]] - timestamps[order[groupStart]] <= windowSeconds) {
+        groupEnd++;
+      }
+      sendGroup(groupStart, groupEnd, poseHistory, consumer);
+      measurementCount++;
+      groupStart = groupEnd;
+    }
+    count = 0;
+    return measurementCount;
+  }
+
+  /** Combines the sorted observations from start (inclusive) to end (exclusive). */
+  private void sendGroup(int start, int end, PoseHistory poseHistory, VisionConsumer consumer) {
+    double groupTimestamp = timestamps[order[end - 1]];
+    boolean canShift = poseHistory != null && poseHistory.getPoseAt(groupTimestamp, groupSample);
+
+    double linearWeight = 0.0;
+    double x = 0.0;
+    double y = 0.0;
+    double angularWeight = 0.0;
+    double sin = 0.0;
+    double cos = 0.0;
+    for (int i = start; i < end; i++) {
+      int index = order[i];
+
+      // Move the observation by the robot's motion until the group timestamp
+      double shiftX = 0.0;
+      double shiftY = 0.0;
+      double shiftTheta = 0.0;
+      if (canShift && poseHistory.getPoseAt(timestamps[index], observationSample)) {
+        shiftX = groupSample.xMeters - observationSample.xMeters;
+        shiftY = groupSample.yMeters - observationSample.yMeters;
+        shiftTheta = MathUtil.angleModulus(groupSample.thetaRad - observationSample.thetaRad);
+      }
+
+      double weight = 1.0 / linearVariances[index];
+      linearWeight += weight;
+      x += weight * (xs[index] + shiftX);
+      y += weight * (ys[index] + shiftY);
+
+      // Average angles on the unit circle, observations without rotation data have no weight
+      if (Double.isFinite(angularVariances[index])) {
+        weight = 1.0 / angularVariances[index];
+        angularWeight += weight;
+        sin += weight * Math.sin(thetas[index] + shiftTheta);
+        cos += weight * Math.cos(thetas[index] + shiftTheta);
+      }
+    }
+
+    // The combined variance is the inverse of the total weight
+    double theta = angularWeight > 0.0 ? Math.atan2(sin, cos) : thetas[order[end - 1]];
+    double angularStdDev =
+        angularWeight > 0.0 ? Math.sqrt(1.0 / angularWeight) : Double.POSITIVE_INFINITY;
+    stdDevs.set(0, 0, Math.sqrt(1.0 / linearWeight));
+    stdDevs.set(1, 0, Math.sqrt(1.0 / linearWeight));
+    stdDevs.set(2, 0, angularStdDev);
+    consumer.accept(
+        new Pose2d(x / linearWeight, y / linearWeight, new Rotation2d(theta)),
+        groupTimestamp,
+        stdDevs);
+  }
+}
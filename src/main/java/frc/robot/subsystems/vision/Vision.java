@@ -9,29 +9,83 @@ package frc.robot.subsystems.vision;
 
 import static frc.robot.subsystems.vision.VisionConstants.*;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.wpilibj.Alert;
 import edu.wpi.first.wpilibj.Alert.AlertType;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.subsystems.vision.VisionIO.PoseObservation;
 import frc.robot.subsystems.vision.VisionIO.PoseObservationType;
-import java.util.LinkedList;
-import java.util.List;
+import frc.robot.util.Pose3dBuffer;
+import frc.robot.util.PoseHistory;
 import org.littletonrobotics.junction.Logger;
 
 public class Vision extends SubsystemBase {
+  private static final int initialPoseCapacity = 8;
+
   private final VisionConsumer consumer;
+  private final PoseHistory poseHistory; // Null to disable statistical gating
   private final VisionIO[] io;
   private final VisionIOInputsAutoLogged[] inputs;
   private final Alert[] disconnectedAlerts;
 
+  // Log keys, built once instead of concatenated every cycle
+  private final String[] inputsKeys;
+  private final String[] tagPosesKeys;
+  private final String[] robotPosesKeys;
+  private final String[] robotPosesAcceptedKeys;
+  private final String[] robotPosesRejectedKeys;
+  private final String[] acceptedCountKeys;
+  private final String[] rejectedCountKeys;
+  private final String[] gatedCountKeys;
+  private final String[] acceptRateKeys;
+
+  // Observation counts per camera since startup, rejected includes gated
+  private final long[] acceptedCounts;
+  private final long[] rejectedCounts;
+  private final long[] gatedCounts;
+  private final int[] consecutiveGatedObservations;
+  private final PoseHistory.Sample historySample = new PoseHistory.Sample();
+
+  // Logging buffers, reused every cycle
+  private final Pose3dBuffer[] tagPoses;
+  private final Pose3dBuffer[] robotPoses;
+  private final Pose3dBuffer[] robotPosesAccepted;
+  private final Pose3dBuffer[] robotPosesRejected;
+  private final Pose3dBuffer allTagPoses = new Pose3dBuffer(initialPoseCapacity);
+  private final Pose3dBuffer allRobotPoses = new Pose3dBuffer(initialPoseCapacity);
+  private final Pose3dBuffer allRobotPosesAccepted = new Pose3dBuffer(initialPoseCapacity);
+  private final Pose3dBuffer allRobotPosesRejected = new Pose3dBuffer(initialPoseCapacity);
+
+  // Whether poses were logged last cycle, so they are cleared once when a camera goes quiet
+  private final boolean[] cameraLoggedPoses;
+  private boolean summaryLoggedPoses = false;
+
+  // Combines accepted observations from all cameras before they are sent to the consumer
+  private final ObservationFuser fuser =
+      new ObservationFuser(maxObservationsPerCycle, fusionWindowSeconds);
+  private boolean loggedFusion = false;
+
   public Vision(VisionConsumer consumer, VisionIO... io) {
+    this(consumer, null, io);
+  }
+
+  /**
+   * Creates a new Vision subsystem that rejects observations that are statistically inconsistent
+   * with the estimated pose at the time they were captured.
+   *
+   * @param consumer Receives accepted observations.
+   * @param poseHistory The history of estimated poses, for example from {@code
+   *     Drive.getPoseHistory()}. Null disables the gate.
+   * @param io The cameras.
+   */
+  public Vision(VisionConsumer consumer, PoseHistory poseHistory, VisionIO... io) {
     this.consumer = consumer;
+    this.poseHistory = poseHistory;
     this.io = io;
 
     // Initialize inputs
@@ -47,6 +101,42 @@ public class Vision extends SubsystemBase {
           new Alert(
               "Vision camera " + Integer.toString(i) + " is disconnected.", AlertType.kWarning);
     }
+
+    // Initialize log keys and buffers
+    inputsKeys = new String[io.length];
+    tagPosesKeys = new String[io.length];
+    robotPosesKeys = new String[io.length];
+    robotPosesAcceptedKeys = new String[io.length];
+    robotPosesRejectedKeys = new String[io.length];
+    acceptedCountKeys = new String[io.length];
+    rejectedCountKeys = new String[io.length];
+    gatedCountKeys = new String[io.length];
+    acceptRateKeys = new String[io.length];
+    acceptedCounts = new long[io.length];
+    rejectedCounts = new long[io.length];
+    gatedCounts = new long[io.length];
+    consecutiveGatedObservations = new int[io.length];
+    tagPoses = new Pose3dBuffer[io.length];
+    robotPoses = new Pose3dBuffer[io.length];
+    robotPosesAccepted = new Pose3dBuffer[io.length];
+    robotPosesRejected = new Pose3dBuffer[io.length];
+    cameraLoggedPoses = new boolean[io.length];
+    for (int i = 0; i < io.length; i++) {
+      String cameraKey = "Vision/Camera" + Integer.toString(i);
+      inputsKeys[i] = cameraKey;
+      tagPosesKeys[i] = cameraKey + "/TagPoses";
+      robotPosesKeys[i] = cameraKey + "/RobotPoses";
+      robotPosesAcceptedKeys[i] = cameraKey + "/RobotPosesAccepted";
+      robotPosesRejectedKeys[i] = cameraKey + "/RobotPosesRejected";
+      acceptedCountKeys[i] = cameraKey + "/AcceptedCount";
+      rejectedCountKeys[i] = cameraKey + "/RejectedCount";
+      gatedCountKeys[i] = cameraKey + "/GatedCount";
+      acceptRateKeys[i] = cameraKey + "/AcceptRate";
+      tagPoses[i] = new Pose3dBuffer(initialPoseCapacity);
+      robotPoses[i] = new Pose3dBuffer(initialPoseCapacity);
+      robotPosesAccepted[i] = new Pose3dBuffer(initialPoseCapacity);
+      robotPosesRejected[i] = new Pose3dBuffer(initialPoseCapacity);
+    }
   }
 
   /**
@@ -62,31 +152,47 @@ public class Vision extends SubsystemBase {
   public void periodic() {
     for (int i = 0; i < io.length; i++) {
       io[i].updateInputs(inputs[i]);
-      Logger.processInputs("Vision/Camera" + Integer.toString(i), inputs[i]);
+      Logger.processInputs(inputsKeys[i], inputs[i]);
     }
 
     // Initialize logging values
-    List<Pose3d> allTagPoses = new LinkedList<>();
-    List<Pose3d> allRobotPoses = new LinkedList<>();
-    List<Pose3d> allRobotPosesAccepted = new LinkedList<>();
-    List<Pose3d> allRobotPosesRejected = new LinkedList<>();
+    int fusedObservations = 0;
+    int fusedMeasurements = 0;
+    allTagPoses.clear();
+    allRobotPoses.clear();
+    allRobotPosesAccepted.clear();
+    allRobotPosesRejected.clear();
 
     // Loop over cameras
     for (int cameraIndex = 0; cameraIndex < io.length; cameraIndex++) {
       // Update disconnected alert
       disconnectedAlerts[cameraIndex].set(!inputs[cameraIndex].connected);
 
+      // Skip cameras without new data, only logging empty poses the first cycle after data stops
+      if (inputs[cameraIndex].poseObservations.length == 0
+          && inputs[cameraIndex].tagIds.length == 0) {
+        if (cameraLoggedPoses[cameraIndex]) {
+          cameraLoggedPoses[cameraIndex] = false;
+          tagPoses[cameraIndex].clear();
+          robotPoses[cameraIndex].clear();
+          robotPosesAccepted[cameraIndex].clear();
+          robotPosesRejected[cameraIndex].clear();
+          logCameraPoses(cameraIndex);
+        }
+        continue;
+      }
+      cameraLoggedPoses[cameraIndex] = true;
+
       // Initialize logging values
-      List<Pose3d> tagPoses = new LinkedList<>();
-      List<Pose3d> robotPoses = new LinkedList<>();
-      List<Pose3d> robotPosesAccepted = new LinkedList<>();
-      List<Pose3d> robotPosesRejected = new LinkedList<>();
+      tagPoses[cameraIndex].clear();
+      robotPoses[cameraIndex].clear();
+      robotPosesAccepted[cameraIndex].clear();
+      robotPosesRejected[cameraIndex].clear();
 
       // Add tag poses
       for (int tagId : inputs[cameraIndex].tagIds) {
-        var tagPose = aprilTagLayout.getTagPose(tagId);
-        if (tagPose.isPresent()) {
-          tagPoses.add(tagPose.get());
+        if (aprilTagCache.hasTag(tagId)) {
+          tagPoses[cameraIndex].add(aprilTagCache.getPose3d(tagId));
         }
       }
 
@@ -102,22 +208,9 @@ public class Vision extends SubsystemBase {
 
                 // Must be within the field boundaries
                 || observation.pose().getX() < 0.0
-                || observation.pose().getX() > aprilTagLayout.getFieldLength()
+                || observation.pose().getX() > aprilTagCache.getFieldLength()
                 || observation.pose().getY() < 0.0
-                || observation.pose().getY() > aprilTagLayout.getFieldWidth();
-
-        // Add pose to log
-        robotPoses.add(observation.pose());
-        if (rejectPose) {
-          robotPosesRejected.add(observation.pose());
-        } else {
-          robotPosesAccepted.add(observation.pose());
-        }
-
-        // Skip if rejected
-        if (rejectPose) {
-          continue;
-        }
+                || observation.pose().getY() > aprilTagCache.getFieldWidth();
 
         // Calculate standard deviations
         double stdDevFactor =
@@ -133,39 +226,125 @@ public class Vision extends SubsystemBase {
           angularStdDev *= cameraStdDevFactors[cameraIndex];
         }
 
-        // Send vision observation
-        consumer.accept(
-            observation.pose().toPose2d(),
-            observation.timestamp(),
-            VecBuilder.fill(linearStdDev, linearStdDev, angularStdDev));
+        // Check whether the pose is consistent with where we think the robot was
+        if (!rejectPose && !isConsistent(cameraIndex, observation, linearStdDev, angularStdDev)) {
+          rejectPose = true;
+          gatedCounts[cameraIndex]++;
+        }
+
+        // Add pose to log
+        robotPoses[cameraIndex].add(observation.pose());
+        if (rejectPose) {
+          robotPosesRejected[cameraIndex].add(observation.pose());
+          rejectedCounts[cameraIndex]++;
+        } else {
+          robotPosesAccepted[cameraIndex].add(observation.pose());
+          acceptedCounts[cameraIndex]++;
+        }
+
+        // Skip if rejected
+        if (rejectPose) {
+          continue;
+        }
+
+        // Queue vision observation for fusion, sending what we have if the queue is full
+        if (fuser.isFull()) {
+          fusedMeasurements += fuser.fuse(poseHistory, consumer);
+        }
+        fuser.add(
+            observation.timestamp(), observation.pose().toPose2d(), linearStdDev, angularStdDev);
+        fusedObservations++;
       }
 
       // Log camera metadata
-      Logger.recordOutput(
-          "Vision/Camera" + Integer.toString(cameraIndex) + "/TagPoses",
-          tagPoses.toArray(new Pose3d[0]));
-      Logger.recordOutput(
-          "Vision/Camera" + Integer.toString(cameraIndex) + "/RobotPoses",
-          robotPoses.toArray(new Pose3d[0]));
-      Logger.recordOutput(
-          "Vision/Camera" + Integer.toString(cameraIndex) + "/RobotPosesAccepted",
-          robotPosesAccepted.toArray(new Pose3d[0]));
-      Logger.recordOutput(
-          "Vision/Camera" + Integer.toString(cameraIndex) + "/RobotPosesRejected",
-          robotPosesRejected.toArray(new Pose3d[0]));
-      allTagPoses.addAll(tagPoses);
-      allRobotPoses.addAll(robotPoses);
-      allRobotPosesAccepted.addAll(robotPosesAccepted);
-      allRobotPosesRejected.addAll(robotPosesRejected);
+      logCameraPoses(cameraIndex);
+      allTagPoses.addAll(tagPoses[cameraIndex]);
+      allRobotPoses.addAll(robotPoses[cameraIndex]);
+      allRobotPosesAccepted.addAll(robotPosesAccepted[cameraIndex]);
+      allRobotPosesRejected.addAll(robotPosesRejected[cameraIndex]);
+    }
+
+    // Send one measurement per group of observations from the same instant
+    fusedMeasurements += fuser.fuse(poseHistory, consumer);
+    if (fusedObservations > 0 || loggedFusion) {
+      loggedFusion = fusedObservations > 0;
+      Logger.recordOutput("Vision/Summary/FusedObservations", fusedObservations);
+      Logger.recordOutput("Vision/Summary/FusedMeasurements", fusedMeasurements);
     }
 
-    // Log summary data
-    Logger.recordOutput("Vision/Summary/TagPoses", allTagPoses.toArray(new Pose3d[0]));
-    Logger.recordOutput("Vision/Summary/RobotPoses", allRobotPoses.toArray(new Pose3d[0]));
+    // Log summary data, skipped while every camera is quiet
+    boolean hasPoses =
+        allTagPoses.size() > 0
+            || allRobotPoses.size() > 0
+            || allRobotPosesAccepted.size() > 0
+            || allRobotPosesRejected.size() > 0;
+    if (hasPoses || summaryLoggedPoses) {
+      summaryLoggedPoses = hasPoses;
+      Logger.recordOutput("Vision/Summary/TagPoses", allTagPoses.toArray());
+      Logger.recordOutput("Vision/Summary/RobotPoses", allRobotPoses.toArray());
+      Logger.recordOutput("Vision/Summary/RobotPosesAccepted", allRobotPosesAccepted.toArray());
+      Logger.recordOutput("Vision/Summary/RobotPosesRejected", allRobotPosesRejected.toArray());
+    }
+  }
+
+  private void logCameraPoses(int cameraIndex) {
+    Logger.recordOutput(tagPosesKeys[cameraIndex], tagPoses[cameraIndex].toArray());
+    Logger.recordOutput(robotPosesKeys[cameraIndex], robotPoses[cameraIndex].toArray());
+    Logger.recordOutput(
+        robotPosesAcceptedKeys[cameraIndex], robotPosesAccepted[cameraIndex].toArray());
     Logger.recordOutput(
-        "Vision/Summary/RobotPosesAccepted", allRobotPosesAccepted.toArray(new Pose3d[0]));
+        robotPosesRejectedKeys[cameraIndex], robotPosesRejected[cameraIndex].toArray());
+    long total = acceptedCounts[cameraIndex] + rejectedCounts[cameraIndex];
+    Logger.recordOutput(acceptedCountKeys[cameraIndex], acceptedCounts[cameraIndex]);
+    Logger.recordOutput(rejectedCountKeys[cameraIndex], rejectedCounts[cameraIndex]);
+    Logger.recordOutput(gatedCountKeys[cameraIndex], gatedCounts[cameraIndex]);
     Logger.recordOutput(
-        "Vision/Summary/RobotPosesRejected", allRobotPosesRejected.toArray(new Pose3d[0]));
+        acceptRateKeys[cameraIndex],
+        total > 0 ? (double) acceptedCounts[cameraIndex] / total : 0.0);
+  }
+
+  /**
+   * Returns whether an observation is within the Mahalanobis gate around the estimated pose at its
+   * timestamp. The covariance is the observation's std devs plus the uncertainty of the pose, and
+   * axes with infinite std devs drop out of both the distance and the degrees of freedom of the
+   * threshold. Observations pass if there is no pose history for their timestamp, or if too many
+   * observations in a row from the same camera have been gated.
+   */
+  private boolean isConsistent(
+      int cameraIndex, PoseObservation observation, double linearStdDev, double angularStdDev) {
+    if (poseHistory == null
+        || !poseHistory.getPoseAt(observation.timestamp(), historySample)
+        || consecutiveGatedObservations[cameraIndex] >= maxConsecutiveGatedObservations) {
+      consecutiveGatedObservations[cameraIndex] = 0;
+      return true;
+    }
+
+    double linearVariance =
+        linearStdDev * linearStdDev + gatePoseStdDevMeters * gatePoseStdDevMeters;
+    double angularVariance =
+        angularStdDev * angularStdDev + gatePoseStdDevRad * gatePoseStdDevRad;
+    double dx = observation.pose().getX() - historySample.xMeters;
+    double dy = observation.pose().getY() - historySample.yMeters;
+    double dtheta =
+        MathUtil.angleModulus(
+            observation.pose().getRotation().getZ() - historySample.thetaRad);
+    double distanceSquared = 0.0;
+    int degreesOfFreedom = 0;
+    if (Double.isFinite(linearVariance)) {
+      distanceSquared += (dx * dx + dy * dy) / linearVariance;
+      degreesOfFreedom += 2;
+    }
+    if (Double.isFinite(angularVariance)) {
+      distanceSquared += dtheta * dtheta / angularVariance;
+      degreesOfFreedom++;
+    }
+
+    if (distanceSquared > mahalanobisGateChiSquared[degreesOfFreedom]) {
+      consecutiveGatedObservations[cameraIndex]++;
+      return false;
+    }
+    consecutiveGatedObservations[cameraIndex] = 0;
+    return true;
   }
 
   @FunctionalInterface
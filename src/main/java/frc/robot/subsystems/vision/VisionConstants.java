@@ -43,20 +43,45 @@ public class VisionConstants {
   public static AprilTagFieldLayout aprilTagLayout =
       new AprilTagFieldLayout(java.util.List.of(TAG1), FIELD_LENGTH_METERS, FIELD_WIDTH_METERS);
 
+  // Tag geometry indexed by ID, built once from the layout for lookups in the vision loop
+  public static final AprilTagCache aprilTagCache = new AprilTagCache(aprilTagLayout);
+
   // Camera names, must match names configured on coprocessor
   public static String camera0Name = "camera_0";
+  public static String camera1Name = "camera_1"; // Only used in sim for now
 
   // Robot to camera transforms
   // (Not used by Limelight, configure in web UI instead)
   public static Transform3d robotToCamera0 =
       new Transform3d(0.2, 0.0, 0.2, new Rotation3d(0.0, -0.4, 0.0));
-  //   public static Transform3d robotToCamera1 =
-  //       new Transform3d(-0.2, 0.0, 0.2, new Rotation3d(0.0, -0.4, Math.PI));
+  public static Transform3d robotToCamera1 =
+      new Transform3d(-0.2, 0.0, 0.2, new Rotation3d(0.0, -0.4, Math.PI));
+
+  // MegaTag 2 orientation publishing. The heading is sent at the odometry rate, but only when it
+  // moves past these deadbands, and the NetworkTables flush is shared by all cameras.
+  public static double orientationYawDeadbandDeg = 0.05;
+  public static double orientationYawRateDeadbandDegPerSec = 2.0;
+  public static double orientationMinFlushPeriodSeconds = 0.01;
 
   // Basic filtering thresholds
   public static double maxAmbiguity = 0.3;
   public static double maxZError = 0.75;
 
+  // Statistical gating against the pose history. Observations are rejected when their Mahalanobis
+  // distance from the estimated pose at capture time exceeds the 99% chi-squared threshold for
+  // the number of axes with finite std devs (MegaTag 2 leaves out the heading), indexed by that
+  // number. The pose uncertainty is added to each observation's own std devs. After this many
+  // gated observations in a row from one camera the gate is skipped for it, so a pose that is far
+  // off (like before the first vision update) can still be corrected.
+  public static double[] mahalanobisGateChiSquared = new double[] {0.0, 6.63, 9.21, 11.34};
+  public static double gatePoseStdDevMeters = 0.15;
+  public static double gatePoseStdDevRad = 0.1;
+  public static int maxConsecutiveGatedObservations = 25;
+
+  // Observations from all cameras within this time of each other are combined into one measurement
+  public static double fusionWindowSeconds = 0.02;
+  public static int maxObservationsPerCycle = 32;
+
   // Standard deviation baselines, for 1 meter distance and 1 tag
   // (Adjusted automatically based on distance and # of tags)
   public static double linearStdDevBaseline = 0.02; // Meters
@@ -66,7 +91,8 @@ public class VisionConstants {
   // (Adjust to trust some cameras more than others)
   public static double[] cameraStdDevFactors =
       new double[] {
-        1.0 // Camera 0
+        1.0, // Camera 0
+        1.0 // Camera 1
       };
 
   // Multipliers to apply for MegaTag 2 observations
@@ -11,21 +11,34 @@ import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.util.Units;
-import edu.wpi.first.networktables.DoubleArrayPublisher;
 import edu.wpi.first.networktables.DoubleArraySubscriber;
 import edu.wpi.first.networktables.DoubleSubscriber;
+import edu.wpi.first.networktables.NetworkTableEvent;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj.RobotController;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.function.Supplier;
-
-/** IO implementation for real Limelight hardware. */
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IO implementation for real Limelight hardware.
+ *
+ * <p>Pose estimates are parsed on the NetworkTables listener thread as soon as they arrive and
+ * handed to the main thread through a lock-free queue, so {@link #updateInputs} only has to drain
+ * ready-made observations.
+ *
+ * <p>The robot heading for MegaTag 2 is sent separately by a {@link
+ * LimelightOrientationPublisher}, which runs at the odometry rate instead of the main loop.
+ */
 public class VisionIOLimelight implements VisionIO {
-  private final Supplier<Rotation2d> rotationSupplier;
-  private final DoubleArrayPublisher orientationPublisher;
+  private static final int maxQueuedSamples = 50; // About one second of frames from both topics
+  private static final PoseObservation[] emptyPoseObservations = new PoseObservation[0];
+  private static final int[] emptyTagIds = new int[0];
 
   private final DoubleSubscriber latencySubscriber;
   private final DoubleSubscriber txSubscriber;
@@ -33,22 +46,38 @@ public class VisionIOLimelight implements VisionIO {
   private final DoubleArraySubscriber megatag1Subscriber;
   private final DoubleArraySubscriber megatag2Subscriber;
 
+  // Filled by the listener thread, drained by the main thread
+  private final Queue<ParsedSample> sampleQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queuedSamples = new AtomicInteger();
+
+  /** A pose observation and the IDs of the tags it used. */
+  private static record ParsedSample(PoseObservation observation, int[] tagIds) {}
+
   /**
    * Creates a new VisionIOLimelight.
    *
    * @param name The configured name of the Limelight.
-   * @param rotationSupplier Supplier for the current estimated rotation, used for MegaTag 2.
    */
-  public VisionIOLimelight(String name, Supplier<Rotation2d> rotationSupplier) {
+  public VisionIOLimelight(String name) {
     var table = NetworkTableInstance.getDefault().getTable(name);
-    this.rotationSupplier = rotationSupplier;
-    orientationPublisher = table.getDoubleArrayTopic("robot_orientation_set").publish();
     latencySubscriber = table.getDoubleTopic("tl").subscribe(0.0);
     txSubscriber = table.getDoubleTopic("tx").subscribe(0.0);
     tySubscriber = table.getDoubleTopic("ty").subscribe(0.0);
     megatag1Subscriber = table.getDoubleArrayTopic("botpose_wpiblue").subscribe(new double[] {});
     megatag2Subscriber =
         table.getDoubleArrayTopic("botpose_orb_wpiblue").subscribe(new double[] {});
+
+    // Parse pose estimates on the listener thread as they arrive
+    NetworkTableInstance.getDefault()
+        .addListener(
+            megatag1Subscriber,
+            EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+            event -> enqueue(event, PoseObservationType.MEGATAG_1));
+    NetworkTableInstance.getDefault()
+        .addListener(
+            megatag2Subscriber,
+            EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+            event -> enqueue(event, PoseObservationType.MEGATAG_2));
   }
 
   @Override
@@ -63,79 +92,83 @@ public class VisionIOLimelight implements VisionIO {
         new TargetObservation(
             Rotation2d.fromDegrees(txSubscriber.get()), Rotation2d.fromDegrees(tySubscriber.get()));
 
-    // Update orientation for MegaTag 2
-    orientationPublisher.accept(
-        new double[] {rotationSupplier.get().getDegrees(), 0.0, 0.0, 0.0, 0.0, 0.0});
-    NetworkTableInstance.getDefault()
-        .flush(); // Increases network traffic but recommended by Limelight
-
-    // Read new pose observations from NetworkTables
+    // Take the observations parsed since the last cycle
+    int sampleCount = queuedSamples.get();
+    if (sampleCount == 0) {
+      inputs.poseObservations = emptyPoseObservations;
+      inputs.tagIds = emptyTagIds;
+      return;
+    }
+    List<PoseObservation> poseObservations = new ArrayList<>(sampleCount);
     Set<Integer> tagIds = new HashSet<>();
-    List<PoseObservation> poseObservations = new LinkedList<>();
-    for (var rawSample : megatag1Subscriber.readQueue()) {
-      if (rawSample.value.length == 0) continue;
-      for (int i = 11; i < rawSample.value.length; i += 7) {
-        tagIds.add((int) rawSample.value[i]);
+    ParsedSample sample;
+    while ((sample = sampleQueue.poll()) != null) {
+      queuedSamples.decrementAndGet();
+      poseObservations.add(sample.observation());
+      for (int tagId : sample.tagIds()) {
+        tagIds.add(tagId);
       }
-      poseObservations.add(
-          new PoseObservation(
-              // Timestamp, based on server timestamp of publish and latency
-              rawSample.timestamp * 1.0e-6 - rawSample.value[6] * 1.0e-3,
-
-              // 3D pose estimate
-              parsePose(rawSample.value),
-
-              // Ambiguity, using only the first tag because ambiguity isn't applicable for
-              // multitag
-              rawSample.value.length >= 18 ? rawSample.value[17] : 0.0,
+    }
 
-              // Tag count
-              (int) rawSample.value[7],
+    // Save pose observations to inputs object
+    inputs.poseObservations = poseObservations.toArray(emptyPoseObservations);
 
-              // Average tag distance
-              rawSample.value[9],
+    // Save tag IDs to inputs objects
+    inputs.tagIds = new int[tagIds.size()];
+    int i = 0;
+    for (int id : tagIds) {
+      inputs.tagIds[i++] = id;
+    }
+  }
 
-              // Observation type
-              PoseObservationType.MEGATAG_1));
+  /** Parses a botpose update on the listener thread and queues it for the main thread. */
+  private void enqueue(NetworkTableEvent event, PoseObservationType type) {
+    if (event.valueData == null) {
+      return;
+    }
+    double[] rawLLArray = event.valueData.value.getDoubleArray();
+    if (rawLLArray.length == 0) {
+      return;
     }
-    for (var rawSample : megatag2Subscriber.readQueue()) {
-      if (rawSample.value.length == 0) continue;
-      for (int i = 11; i < rawSample.value.length; i += 7) {
-        tagIds.add((int) rawSample.value[i]);
-      }
-      poseObservations.add(
-          new PoseObservation(
-              // Timestamp, based on server timestamp of publish and latency
-              rawSample.timestamp * 1.0e-6 - rawSample.value[6] * 1.0e-3,
 
-              // 3D pose estimate
-              parsePose(rawSample.value),
+    // Drop the oldest sample if the main thread isn't keeping up
+    if (queuedSamples.get() >= maxQueuedSamples && sampleQueue.poll() != null) {
+      queuedSamples.decrementAndGet();
+    }
+    sampleQueue.add(parseSample(rawLLArray, event.valueData.value.getTime(), type));
+    queuedSamples.incrementAndGet();
+  }
 
-              // Ambiguity, zeroed because the pose is already disambiguated
-              0.0,
+  /** Parses a pose observation and its tag IDs from a Limelight botpose array. */
+  private static ParsedSample parseSample(
+      double[] rawLLArray, long timestampMicros, PoseObservationType type) {
+    int[] tagIds = new int[Math.max((rawLLArray.length - 11 + 6) / 7, 0)];
+    for (int i = 11, tag = 0; i < rawLLArray.length; i += 7, tag++) {
+      tagIds[tag] = (int) rawLLArray[i];
+    }
+    return new ParsedSample(
+        new PoseObservation(
+            // Timestamp, based on server timestamp of publish and latency
+            timestampMicros * 1.0e-6 - rawLLArray[6] * 1.0e-3,
 
-              // Tag count
-              (int) rawSample.value[7],
+            // 3D pose estimate
+            parsePose(rawLLArray),
 
-              // Average tag distance
-              rawSample.value[9],
+            // Ambiguity, using only the first tag because ambiguity isn't applicable for
+            // multitag. MegaTag 2 is zeroed because the pose is already disambiguated.
+            type == PoseObservationType.MEGATAG_1 && rawLLArray.length >= 18
+                ? rawLLArray[17]
+                : 0.0,
 
-              // Observation type
-              PoseObservationType.MEGATAG_2));
-    }
+            // Tag count
+            (int) rawLLArray[7],
 
-    // Save pose observations to inputs object
-    inputs.poseObservations = new PoseObservation[poseObservations.size()];
-    for (int i = 0; i < poseObservations.size(); i++) {
-      inputs.poseObservations[i] = poseObservations.get(i);
-    }
+            // Average tag distance
+            rawLLArray[9],
 
-    // Save tag IDs to inputs objects
-    inputs.tagIds = new int[tagIds.size()];
-    int i = 0;
-    for (int id : tagIds) {
-      inputs.tagIds[i++] = id;
-    }
+            // Observation type
+            type),
+        tagIds);
   }
 
   /** Parses the 3D pose from a Limelight botpose array. */
@@ -0,0 +1,128 @@
+package frc.robot.subsystems.vision;
+
+import static frc.robot.subsystems.vision.VisionConstants.*;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.photonvision.PhotonCamera;
+
+/**
+ * IO implementation for real PhotonVision hardware.
+ *
+ * <p>Every result received since the last cycle becomes a pose observation. Multi-tag results use
+ * the coprocessor's solve, single-tag results are solved here from the tag pose in the layout.
+ */
+public class VisionIOPhotonVision implements VisionIO {
+  private static final PoseObservation[] emptyPoseObservations = new PoseObservation[0];
+  private static final int[] emptyTagIds = new int[0];
+
+  protected final PhotonCamera camera;
+  protected final Transform3d robotToCamera;
+  private final Transform3d cameraToRobot;
+
+  /**
+   * Creates a new VisionIOPhotonVision.
+   *
+   * @param name The configured name of the camera.
+   * @param robotToCamera The 3D position of the camera relative to the robot.
+   */
+  public VisionIOPhotonVision(String name, Transform3d robotToCamera) {
+    camera = new PhotonCamera(name);
+    this.robotToCamera = robotToCamera;
+    cameraToRobot = robotToCamera.inverse();
+  }
+
+  @Override
+  public void updateInputs(VisionIOInputs inputs) {
+    inputs.connected = camera.isConnected();
+
+    // Read new camera observations
+    List<PoseObservation> poseObservations = new ArrayList<>();
+    Set<Integer> tagIds = new HashSet<>();
+    for (var result : camera.getAllUnreadResults()) {
+      // Update latest target observation
+      if (result.hasTargets()) {
+        inputs.latestTargetObservation =
+            new TargetObservation(
+                Rotation2d.fromDegrees(result.getBestTarget().getYaw()),
+                Rotation2d.fromDegrees(result.getBestTarget().getPitch()));
+      } else {
+        inputs.latestTargetObservation = new TargetObservation(Rotation2d.kZero, Rotation2d.kZero);
+      }
+
+      if (result.multitagResult.isPresent()) { // Multitag result
+        var multitagResult = result.multitagResult.get();
+
+        // Calculate robot pose
+        Transform3d fieldToRobot = multitagResult.estimatedPose.best.plus(cameraToRobot);
+        Pose3d robotPose = new Pose3d(fieldToRobot.getTranslation(), fieldToRobot.getRotation());
+
+        // Calculate average tag distance
+        double totalTagDistance = 0.0;
+        for (var target : result.targets) {
+          totalTagDistance += target.bestCameraToTarget.getTranslation().getNorm();
+        }
+
+        // Add tag IDs
+        for (short tagId : multitagResult.fiducialIDsUsed) {
+          tagIds.add((int) tagId);
+        }
+
+        // Add observation
+        poseObservations.add(
+            new PoseObservation(
+                result.getTimestampSeconds(), // Timestamp
+                robotPose, // 3D pose estimate
+                multitagResult.estimatedPose.ambiguity, // Ambiguity
+                multitagResult.fiducialIDsUsed.size(), // Tag count
+                totalTagDistance / result.targets.size(), // Average tag distance
+                PoseObservationType.PHOTONVISION)); // Observation type
+
+      } else if (!result.targets.isEmpty()) { // Single tag result
+        var target = result.targets.get(0);
+
+        // Calculate robot pose
+        Transform3d fieldToTarget = aprilTagCache.getFieldToTag(target.fiducialId);
+        if (fieldToTarget == null) {
+          continue; // Not a tag in the layout
+        }
+        Transform3d cameraToTarget = target.bestCameraToTarget;
+        Transform3d fieldToRobot =
+            fieldToTarget.plus(cameraToTarget.inverse()).plus(cameraToRobot);
+        Pose3d robotPose = new Pose3d(fieldToRobot.getTranslation(), fieldToRobot.getRotation());
+
+        // Add tag ID
+        tagIds.add(target.fiducialId);
+
+        // Add observation
+        poseObservations.add(
+            new PoseObservation(
+                result.getTimestampSeconds(), // Timestamp
+                robotPose, // 3D pose estimate
+                target.poseAmbiguity, // Ambiguity
+                1, // Tag count
+                cameraToTarget.getTranslation().getNorm(), // Average tag distance
+                PoseObservationType.PHOTONVISION)); // Observation type
+      }
+    }
+
+    // Save pose observations to inputs object
+    inputs.poseObservations = poseObservations.toArray(emptyPoseObservations);
+
+    // Save tag IDs to inputs objects
+    if (tagIds.isEmpty()) {
+      inputs.tagIds = emptyTagIds;
+      return;
+    }
+    inputs.tagIds = new int[tagIds.size()];
+    int i = 0;
+    for (int id : tagIds) {
+      inputs.tagIds[i++] = id;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package frc.robot.subsystems.vision;
+
+import static frc.robot.subsystems.vision.VisionConstants.*;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.wpilibj.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Sim implementation of vision IO, which renders tag detections from the true robot pose.
+ *
+ * <p>Frames are captured at a fixed rate from the camera pose given by the robot to camera
+ * transform. A tag is detected if it is within range and the field of view and is facing the
+ * camera. Each frame with at least one tag produces a pose observation with noise that grows with
+ * distance and shrinks with more tags, and is delivered after a randomized pipeline latency, like
+ * a coprocessor running a multi-tag solve. Noise uses a fixed seed so runs are repeatable.
+ */
+public class VisionIOSim implements VisionIO {
+  private static final double frameRateHz = 30.0;
+  private static final double latencyMeanSeconds = 0.035;
+  private static final double latencyStdDevSeconds = 0.005;
+  private static final double horizontalFovRad = Math.toRadians(70.0);
+  private static final double verticalFovRad = Math.toRadians(50.0);
+  private static final double maxRangeMeters = 6.0;
+  private static final double maxViewAngleRad = Math.toRadians(80.0); // From the tag's normal
+  private static final double linearNoiseBaseline = 0.02; // Meters at 1 meter with 1 tag
+  private static final double angularNoiseBaseline = 0.03; // Radians at 1 meter with 1 tag
+
+  private final Transform3d robotToCamera;
+  private final Supplier<Pose2d> poseSupplier;
+  private final Random random;
+
+  private double lastFrameTimestamp = Double.NEGATIVE_INFINITY;
+  private final List<PendingFrame> pendingFrames = new ArrayList<>();
+
+  /** A captured frame waiting for its pipeline latency to pass. */
+  private static record PendingFrame(
+      double deliveryTimestamp,
+      PoseObservation observation,
+      int[] tagIds,
+      TargetObservation targetObservation) {}
+
+  /**
+   * Creates a new VisionIOSim.
+   *
+   * @param name The name of the camera, used to seed the noise.
+   * @param robotToCamera The 3D position of the camera relative to the robot.
+   * @param poseSupplier Supplier for the true robot pose to render detections from.
+   */
+  public VisionIOSim(String name, Transform3d robotToCamera, Supplier<Pose2d> poseSupplier) {
+    this.robotToCamera = robotToCamera;
+    this.poseSupplier = poseSupplier;
+    random = new Random(name.hashCode());
+  }
+
+  @Override
+  public void updateInputs(VisionIOInputs inputs) {
+    inputs.connected = true;
+
+    // Capture a frame if one is due
+    double timestamp = Timer.getFPGATimestamp();
+    if (timestamp - lastFrameTimestamp >= 1.0 / frameRateHz) {
+      lastFrameTimestamp = timestamp;
+      captureFrame(timestamp);
+    }
+
+    // Deliver frames whose latency has passed
+    List<PoseObservation> poseObservations = new ArrayList<>();
+    List<Integer> tagIds = new ArrayList<>();
+    for (int i = 0; i < pendingFrames.size(); ) {
+      PendingFrame frame = pendingFrames.get(i);
+      if (frame.deliveryTimestamp() > timestamp) {
+        i++;
+        continue;
+      }
+      pendingFrames.remove(i);
+      poseObservations.add(frame.observation());
+      inputs.latestTargetObservation = frame.targetObservation();
+      for (int tagId : frame.tagIds()) {
+        if (!tagIds.contains(tagId)) {
+          tagIds.add(tagId);
+        }
+      }
+    }
+    inputs.poseObservations = poseObservations.toArray(new PoseObservation[0]);
+    inputs.tagIds = tagIds.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /** Renders the tags visible from the current pose and queues the frame if any were seen. */
+  private void captureFrame(double timestamp) {
+    Pose3d robotPose = new Pose3d(poseSupplier.get());
+    Pose3d cameraPose = robotPose.transformBy(robotToCamera);
+
+    // Find the visible tags
+    List<Integer> visibleTagIds = new ArrayList<>();
+    double totalDistance = 0.0;
+    double closestDistance = Double.POSITIVE_INFINITY;
+    Translation3d closestTag = null;
+    for (int tagId : aprilTagCache.getIds()) {
+      double dx = aprilTagCache.getX(tagId) - cameraPose.getX();
+      double dy = aprilTagCache.getY(tagId) - cameraPose.getY();
+      double dz = aprilTagCache.getZ(tagId) - cameraPose.getZ();
+      double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      if (distance > maxRangeMeters) {
+        continue; // Too far
+      }
+      Translation3d tagInCamera =
+          new Translation3d(dx, dy, dz).rotateBy(cameraPose.getRotation().unaryMinus());
+      if (tagInCamera.getX() <= 0.0) {
+        continue; // Behind the camera
+      }
+      double yaw = Math.atan2(tagInCamera.getY(), tagInCamera.getX());
+      double pitch = Math.atan2(tagInCamera.getZ(), tagInCamera.getX());
+      if (Math.abs(yaw) > horizontalFovRad / 2.0 || Math.abs(pitch) > verticalFovRad / 2.0) {
+        continue; // Outside the field of view
+      }
+
+      // The tag is visible if the direction it faces points back at the camera
+      double cosViewAngle =
+          -(aprilTagCache.getNormalX(tagId) * dx
+                  + aprilTagCache.getNormalY(tagId) * dy
+                  + aprilTagCache.getNormalZ(tagId) * dz)
+              / distance;
+      if (cosViewAngle < Math.cos(maxViewAngleRad)) {
+        continue; // Viewed too edge-on
+      }
+
+      visibleTagIds.add(tagId);
+      totalDistance += distance;
+      if (distance < closestDistance) {
+        closestDistance = distance;
+        closestTag = tagInCamera;
+      }
+    }
+    if (visibleTagIds.isEmpty()) {
+      return;
+    }
+
+    // Add noise to the true pose, scaled like the std devs used by the estimator
+    int tagCount = visibleTagIds.size();
+    double averageDistance = totalDistance / tagCount;
+    double noiseFactor = Math.pow(averageDistance, 2.0) / tagCount;
+    double linearNoise = linearNoiseBaseline * noiseFactor;
+    double angularNoise = angularNoiseBaseline * noiseFactor;
+    Pose3d observedPose =
+        new Pose3d(
+            robotPose.getX() + random.nextGaussian() * linearNoise,
+            robotPose.getY() + random.nextGaussian() * linearNoise,
+            random.nextGaussian() * linearNoise,
+            new Rotation3d(
+                0.0, 0.0, robotPose.getRotation().getZ() + random.nextGaussian() * angularNoise));
+
+    // Single tag solves can be ambiguous, multi-tag solves aren't
+    double ambiguity = tagCount == 1 ? random.nextDouble() * 0.2 : 0.0;
+
+    double latency =
+        Math.max(latencyMeanSeconds + random.nextGaussian() * latencyStdDevSeconds, 0.0);
+    pendingFrames.add(
+        new PendingFrame(
+            timestamp + latency,
+            new PoseObservation(
+                timestamp,
+                observedPose,
+                ambiguity,
+                tagCount,
+                averageDistance,
+                PoseObservationType.PHOTONVISION),
+            visibleTagIds.stream().mapToInt(Integer::intValue).toArray(),
+            new TargetObservation(
+                new Rotation2d(-Math.atan2(closestTag.getY(), closestTag.getX())),
+                new Rotation2d(Math.atan2(closestTag.getZ(), closestTag.getX())))));
+  }
+}
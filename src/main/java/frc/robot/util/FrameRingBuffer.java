@@ -0,0 +1,91 @@
+package frc.robot.util;
+
+/**
+ * Fixed-capacity ring buffer of timestamped frames of primitive doubles, for passing samples from
+ * exactly one producer thread to exactly one consumer thread.
+ *
+ * <p>Each frame holds a timestamp plus a fixed number of values that were sampled together. A
+ * frame only becomes visible to the consumer after all of its values are written, so the consumer
+ * can never see a partial frame or mix values from different instants. All storage is allocated up
+ * front, so neither side ever allocates or blocks.
+ */
+public class FrameRingBuffer {
+  private final int capacity;
+  private final int width;
+  private final double[] timestamps;
+  private final double[] values; // Stored frame by frame, "width" values per frame
+
+  // Both indices only ever increase (the slot is the index modulo the capacity). The write index
+  // is only changed by the producer and the read index only by the consumer, so volatile is
+  // enough to safely publish frames between the two threads.
+  private volatile long writeIndex = 0;
+  private volatile long readIndex = 0;
+
+  /**
+   * Creates a new FrameRingBuffer.
+   *
+   * @param capacity The maximum number of frames waiting to be drained.
+   * @param width The number of values in each frame.
+   */
+  public FrameRingBuffer(int capacity, int width) {
+    this.capacity = capacity;
+    this.width = width;
+    timestamps = new double[capacity];
+    values = new double[capacity * width];
+  }
+
+  /**
+   * Adds a frame to the buffer. Must only be called from the producer thread.
+   *
+   * @param timestamp The timestamp of the frame.
+   * @param frameValues The values of the frame, the first "width" values are copied.
+   * @return Whether the frame was added, false if the buffer is full.
+   */
+  public boolean offer(double timestamp, double[] frameValues) {
+    long write = writeIndex;
+    if (write - readIndex >= capacity) {
+      return false;
+    }
+    int slot = (int) (write % capacity);
+    timestamps[slot] = timestamp;
+    System.arraycopy(frameValues, 0, values, slot * width, width);
+    writeIndex = write + 1; // Publishes the frame to the consumer
+    return true;
+  }
+
+  /**
+   * Copies all available frames to the output arrays and removes them from the buffer. Must only
+   * be called from the consumer thread.
+   *
+   * @param timestampsOut Receives one timestamp per frame, must hold at least "capacity" values.
+   * @param valuesOut Receives the values frame by frame, must hold at least "capacity * width"
+   *     values.
+   * @return The number of frames copied.
+   */
+  public int drainTo(double[] timestampsOut, double[] valuesOut) {
+    long read = readIndex;
+    int count = (int) (writeIndex - read);
+    for (int i = 0; i < count; i++) {
+      int slot = (int) ((read + i) % capacity);
+      timestampsOut[i] = timestamps[slot];
+      System.arraycopy(values, slot * width, valuesOut, i * width, width);
+    }
+    readIndex = read + count; // Frees the slots for the producer
+    return count;
+  }
+
+  /** Returns the number of frames waiting to be drained. */
+  public int size() {
+    return (int) (writeIndex - readIndex);
+  }
+
+  /** Returns the maximum number of frames the buffer can hold. */
+  public int capacity() {
+    return capacity;
+  }
+
+  /** Returns the number of values in each frame. */
+  public int width() {
+    return width;
+  }
+}
@@ -0,0 +1,156 @@
+package frc.robot.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable lookup table that interpolates between sorted data points.
+ *
+ * <p>The points are sorted and copied into primitive arrays when the table is built, so a lookup is
+ * a binary search and a little arithmetic with no allocation. Inputs outside the table return the
+ * value of the nearest end point. Points with the same input keep the last value given, like
+ * putting them into a map.
+ *
+ * <p>Monotone cubic interpolation (Fritsch-Carlson) gives a smooth curve through the points that
+ * never overshoots between them, so a table that only increases never dips. With two points it is
+ * the same as linear interpolation.
+ */
+public class InterpolationTable {
+  public static enum Mode {
+    LINEAR,
+    MONOTONE_CUBIC
+  }
+
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] slopes; // Tangent at each point, only used for monotone cubic
+  private final Mode mode;
+
+  /**
+   * Creates a new InterpolationTable.
+   *
+   * @param xs The input of each point, in any order.
+   * @param ys The output of each point.
+   * @param mode How to interpolate between points.
+   * @throws IllegalArgumentException If the arrays are empty or have different lengths.
+   */
+  public InterpolationTable(double[] xs, double[] ys, Mode mode) {
+    if (xs.length == 0 || xs.length != ys.length) {
+      throw new IllegalArgumentException("Interpolation table needs matching, non-empty arrays");
+    }
+    this.mode = mode;
+
+    // Sort the points by input, stable so the last of any duplicates ends up last
+    Integer[] order = new Integer[xs.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(xs[a], xs[b]));
+
+    // Copy the sorted points, replacing duplicates with the later value
+    double[] sortedXs = new double[xs.length];
+    double[] sortedYs = new double[ys.length];
+    int count = 0;
+    for (int index : order) {
+      if (count > 0 && sortedXs[count - 1] == xs[index]) {
+        sortedYs[count - 1] = ys[index];
+      } else {
+        sortedXs[count] = xs[index];
+        sortedYs[count] = ys[index];
+        count++;
+      }
+    }
+    this.xs = Arrays.copyOf(sortedXs, count);
+    this.ys = Arrays.copyOf(sortedYs, count);
+    slopes = mode == Mode.MONOTONE_CUBIC ? computeMonotoneSlopes(this.xs, this.ys) : null;
+  }
+
+  /** Returns the interpolated output for an input, clamped to the end points. */
+  public double get(double x) {
+    int last = xs.length - 1;
+    if (x <= xs[0]) {
+      return ys[0];
+    }
+    if (x >= xs[last]) {
+      return ys[last];
+    }
+
+    // Find the segment that contains x, xs[low] < x < xs[low + 1]
+    int low = 0;
+    int high = last;
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (xs[mid] <= x) {
+        low = mid;
+      } else {
+        high = mid;
+      }
+    }
+
+    double h = xs[high] - xs[low];
+    double t = (x - xs[low]) / h;
+    if (mode == Mode.LINEAR) {
+      return ys[low] + (ys[high] - ys[low]) * t;
+    }
+
+    // Cubic Hermite basis
+    double t2 = t * t;
+    double t3 = t2 * t;
+    return (2.0 * t3 - 3.0 * t2 + 1.0) * ys[low]
+        + (t3 - 2.0 * t2 + t) * h * slopes[low]
+        + (-2.0 * t3 + 3.0 * t2) * ys[high]
+        + (t3 - t2) * h * slopes[high];
+  }
+
+  /** Returns the number of distinct points in the table. */
+  public int size() {
+    return xs.length;
+  }
+
+  /** Returns the smallest input in the table. */
+  public double getMinInput() {
+    return xs[0];
+  }
+
+  /** Returns the largest input in the table. */
+  public double getMaxInput() {
+    return xs[xs.length - 1];
+  }
+
+  /** Returns tangents at each point that keep a cubic Hermite spline monotone between points. */
+  private static double[] computeMonotoneSlopes(double[] xs, double[] ys) {
+    int n = xs.length;
+    double[] slopes = new double[n];
+    if (n < 2) {
+      return slopes;
+    }
+
+    double[] secants = new double[n - 1];
+    for (int i = 0; i < n - 1; i++) {
+      secants[i] = (ys[i + 1] - ys[i]) / (xs[i + 1] - xs[i]);
+    }
+    slopes[0] = secants[0];
+    slopes[n - 1] = secants[n - 2];
+    for (int i = 1; i < n - 1; i++) {
+      // Flat at local extremes, otherwise the average of the neighboring secants
+      slopes[i] = secants[i - 1] * secants[i] <= 0.0 ? 0.0 : (secants[i - 1] + secants[i]) / 2.0;
+    }
+
+    // Scale down tangents that would overshoot
+    for (int i = 0; i < n - 1; i++) {
+      if (secants[i] == 0.0) {
+        slopes[i] = 0.0;
+        slopes[i + 1] = 0.0;
+        continue;
+      }
+      double alpha = slopes[i] / secants[i];
+      double beta = slopes[i + 1] / secants[i];
+      double magnitude = alpha * alpha + beta * beta;
+      if (magnitude > 9.0) {
+        double tau = 3.0 / Math.sqrt(magnitude);
+        slopes[i] = tau * alpha * secants[i];
+        slopes[i + 1] = tau * beta * secants[i];
+      }
+    }
+    return slopes;
+  }
+}
@@ -0,0 +1,71 @@
+package frc.robot.util;
+
+import edu.wpi.first.math.geometry.Pose3d;
+
+/**
+ * Reusable list of poses for logging, so code that logs a varying number of poses every cycle
+ * doesn't create new lists and arrays each time.
+ *
+ * <p>{@link #toArray()} returns an array of exactly the current size, which the logger requires.
+ * One array is kept for each size that has been requested, so after the first few cycles no new
+ * arrays are created. This class is not thread safe.
+ */
+public class Pose3dBuffer {
+  private Pose3d[] elements;
+  private int size = 0;
+  private Pose3d[][] arraysBySize = new Pose3d[][] {new Pose3d[0]};
+
+  /**
+   * Creates a new Pose3dBuffer.
+   *
+   * @param initialCapacity The number of poses to make room for, the buffer grows if needed.
+   */
+  public Pose3dBuffer(int initialCapacity) {
+    elements = new Pose3d[Math.max(initialCapacity, 1)];
+  }
+
+  /** Adds a pose to the end of the buffer. */
+  public void add(Pose3d pose) {
+    if (size == elements.length) {
+      Pose3d[] newElements = new Pose3d[elements.length * 2];
+      System.arraycopy(elements, 0, newElements, 0, size);
+      elements = newElements;
+    }
+    elements[size++] = pose;
+  }
+
+  /** Adds every pose in another buffer to the end of this buffer. */
+  public void addAll(Pose3dBuffer other) {
+    for (int i = 0; i < other.size; i++) {
+      add(other.elements[i]);
+    }
+  }
+
+  /** Removes all poses. */
+  public void clear() {
+    size = 0;
+  }
+
+  /** Returns the number of poses in the buffer. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the poses as an array of exactly {@link #size()} elements. The array is reused the next
+   * time a buffer of the same size is converted, so it should be logged right away and not stored.
+   */
+  public Pose3d[] toArray() {
+    if (size >= arraysBySize.length) {
+      Pose3d[][] newArrays = new Pose3d[size + 1][];
+      System.arraycopy(arraysBySize, 0, newArrays, 0, arraysBySize.length);
+      arraysBySize = newArrays;
+    }
+    if (arraysBySize[size] == null) {
+      arraysBySize[size] = new Pose3d[size];
+    }
+    Pose3d[] array = arraysBySize[size];
+    System.arraycopy(elements, 0, array, 0, size);
+    return array;
+  }
+}
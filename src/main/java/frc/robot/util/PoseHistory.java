@@ -0,0 +1,226 @@
+package frc.robot.util;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Fixed-size history of timestamped robot poses and field-relative velocities.
+ *
+ * <p>Samples are stored in primitive arrays used as a ring buffer, so once the buffer is full the
+ * oldest sample is overwritten. Lookups use a binary search and linearly interpolate between the
+ * two samples around the requested time, writing the result to a caller-owned {@link Sample} so
+ * that queries never allocate. This class is not thread safe.
+ */
+public class PoseHistory {
+  private final int capacity;
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+  private final double[] vxs;
+  private final double[] vys;
+  private final double[] omegas;
+  private int oldestIndex = 0;
+  private int size = 0;
+
+  /** A pose and field-relative velocity at a point in time, reused between lookups. */
+  public static class Sample {
+    public double timestamp = 0.0;
+    public double xMeters = 0.0;
+    public double yMeters = 0.0;
+    public double thetaRad = 0.0;
+    public double vxMetersPerSec = 0.0;
+    public double vyMetersPerSec = 0.0;
+    public double omegaRadPerSec = 0.0;
+
+    /** Creates a new Pose2d from the sample. */
+    public Pose2d toPose2d() {
+      return new Pose2d(xMeters, yMeters, new Rotation2d(thetaRad));
+    }
+  }
+
+  /**
+   * Creates a new PoseHistory.
+   *
+   * @param capacity The number of samples to keep.
+   */
+  public PoseHistory(int capacity) {
+    this.capacity = capacity;
+    timestamps = new double[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    thetas = new double[capacity];
+    vxs = new double[capacity];
+    vys = new double[capacity];
+    omegas = new double[capacity];
+  }
+
+  /**
+   * Adds a sample to the history. Samples must be added in time order, a sample that isn't newer
+   * than the latest sample is ignored.
+   */
+  public void addSample(
+      double timestamp,
+      double xMeters,
+      double yMeters,
+      double thetaRad,
+      double vxMetersPerSec,
+      double vyMetersPerSec,
+      double omegaRadPerSec) {
+    if (size > 0 && timestamp <= timestamps[physicalIndex(size - 1)]) {
+      return;
+    }
+
+    // Overwrite the oldest sample once the buffer is full
+    int index;
+    if (size < capacity) {
+      index = physicalIndex(size);
+      size++;
+    } else {
+      index = oldestIndex;
+      oldestIndex = (oldestIndex + 1) % capacity;
+    }
+    timestamps[index] = timestamp;
+    xs[index] = xMeters;
+    ys[index] = yMeters;
+    thetas[index] = thetaRad;
+    vxs[index] = vxMetersPerSec;
+    vys[index] = vyMetersPerSec;
+    omegas[index] = omegaRadPerSec;
+  }
+
+  /** Removes all samples, for example after the pose is reset. */
+  public void clear() {
+    oldestIndex = 0;
+    size = 0;
+  }
+
+  /** Returns the number of samples in the history. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the timestamp of the oldest sample, or NaN if the history is empty. */
+  public double getOldestTimestamp() {
+    return size > 0 ? timestamps[oldestIndex] : Double.NaN;
+  }
+
+  /** Returns the timestamp of the latest sample, or NaN if the history is empty. */
+  public double getLatestTimestamp() {
+    return size > 0 ? timestamps[physicalIndex(size - 1)] : Double.NaN;
+  }
+
+  /**
+   * Looks up the pose at a timestamp, interpolating between samples. Requests newer than the latest
+   * sample return the latest sample.
+   *
+   * @param timestamp The timestamp to look up.
+   * @param out Receives the timestamp, pose, and velocity.
+   * @return Whether a sample was found, false if the history is empty or doesn't go back that far.
+   */
+  public boolean getPoseAt(double timestamp, Sample out) {
+    return sampleAt(timestamp, out);
+  }
+
+  /**
+   * Looks up the field-relative velocity at a timestamp, from the change in pose between the two
+   * samples around it. Unlike the velocity recorded with each sample, which comes from the wheels
+   * and gyro, this follows the estimated pose, including any corrections. Requests newer than the
+   * latest sample use the latest two samples.
+   *
+   * @param timestamp The timestamp to look up.
+   * @param out Receives the timestamp, the interpolated pose, and the velocity.
+   * @return Whether a velocity was found, false if there are fewer than two samples or the history
+   *     doesn't go back that far.
+   */
+  public boolean getVelocityAt(double timestamp, Sample out) {
+    if (size < 2 || !sampleAt(timestamp, out)) {
+      return false;
+    }
+    int segment = findSegment(timestamp);
+    int before = physicalIndex(segment);
+    int after = physicalIndex(segment + 1);
+    double dt = timestamps[after] - timestamps[before];
+    out.vxMetersPerSec = (xs[after] - xs[before]) / dt;
+    out.vyMetersPerSec = (ys[after] - ys[before]) / dt;
+    out.omegaRadPerSec = MathUtil.angleModulus(thetas[after] - thetas[before]) / dt;
+    return true;
+  }
+
+  /**
+   * Returns the latest sample.
+   *
+   * @param out Receives the timestamp, pose, and velocity.
+   * @return Whether a sample was found, false if the history is empty.
+   */
+  public boolean getLatest(Sample out) {
+    if (size == 0) {
+      return false;
+    }
+    copySample(physicalIndex(size - 1), out);
+    return true;
+  }
+
+  private boolean sampleAt(double timestamp, Sample out) {
+    if (size == 0 || timestamp < timestamps[oldestIndex]) {
+      return false;
+    }
+    int latest = physicalIndex(size - 1);
+    if (timestamp >= timestamps[latest]) {
+      copySample(latest, out);
+      return true;
+    }
+
+    int segment = findSegment(timestamp);
+    int before = physicalIndex(segment);
+    int after = physicalIndex(segment + 1);
+
+    // Interpolate between the samples, taking the short way around for the angle
+    double t = (timestamp - timestamps[before]) / (timestamps[after] - timestamps[before]);
+    out.timestamp = timestamp;
+    out.xMeters = MathUtil.interpolate(xs[before], xs[after], t);
+    out.yMeters = MathUtil.interpolate(ys[before], ys[after], t);
+    out.thetaRad =
+        MathUtil.angleModulus(
+            thetas[before] + MathUtil.angleModulus(thetas[after] - thetas[before]) * t);
+    out.vxMetersPerSec = MathUtil.interpolate(vxs[before], vxs[after], t);
+    out.vyMetersPerSec = MathUtil.interpolate(vys[before], vys[after], t);
+    out.omegaRadPerSec = MathUtil.interpolate(omegas[before], omegas[after], t);
+    return true;
+  }
+
+  /**
+   * Returns the position of the last sample at or before a timestamp, limited so there is always a
+   * sample after it. Needs at least two samples.
+   */
+  private int findSegment(double timestamp) {
+    // Binary search for the last sample at or before the timestamp
+    int low = 0;
+    int high = size - 2;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (timestamps[physicalIndex(mid)] <= timestamp) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  private void copySample(int index, Sample out) {
+    out.timestamp = timestamps[index];
+    out.xMeters = xs[index];
+    out.yMeters = ys[index];
+    out.thetaRad = thetas[index];
+    out.vxMetersPerSec = vxs[index];
+    out.vyMetersPerSec = vys[index];
+    out.omegaRadPerSec = omegas[index];
+  }
+
+  /** Converts a position from oldest (0) to latest (size - 1) to an array index. */
+  private int physicalIndex(int logicalIndex) {
+    return (oldestIndex + logicalIndex) % capacity;
+  }
+}
@@ -0,0 +1,100 @@
+package frc.robot.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-bin histogram of durations, recorded by one thread and summarized by another.
+ *
+ * <p>Recording a duration is a single counter increment with no allocation or locking, so it is
+ * cheap enough to call from a high-rate thread. Each summary covers the durations recorded since
+ * the previous summary.
+ */
+public class TimingHistogram {
+  private final long binWidthMicros;
+
+  // Cumulative counts, only incremented by the recording thread
+  private final AtomicIntegerArray counts;
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  // Only used by the summarizing thread
+  private final int[] lastCounts;
+  private final int[] windowCounts;
+  private int windowSampleCount = 0;
+  private double p50Seconds = 0.0;
+  private double p99Seconds = 0.0;
+  private double maxSeconds = 0.0;
+
+  /**
+   * Creates a new TimingHistogram. Durations longer than the last bin are counted in the last bin.
+   *
+   * @param binWidthMicros The width of each bin in microseconds.
+   * @param binCount The number of bins.
+   */
+  public TimingHistogram(long binWidthMicros, int binCount) {
+    this.binWidthMicros = binWidthMicros;
+    counts = new AtomicIntegerArray(binCount);
+    lastCounts = new int[binCount];
+    windowCounts = new int[binCount];
+  }
+
+  /** Records a duration. Must only be called from one thread. */
+  public void record(long durationMicros) {
+    durationMicros = Math.max(durationMicros, 0);
+    int bin = (int) Math.min(durationMicros / binWidthMicros, counts.length() - 1);
+    counts.lazySet(bin, counts.get(bin) + 1); // Single writer, so no atomic increment needed
+    if (durationMicros > maxMicros.get()) {
+      maxMicros.accumulateAndGet(durationMicros, Math::max);
+    }
+  }
+
+  /** Updates the summary using the durations recorded since the last call. */
+  public void summarize() {
+    windowSampleCount = 0;
+    for (int i = 0; i < windowCounts.length; i++) {
+      int count = counts.get(i);
+      windowCounts[i] = count - lastCounts[i];
+      lastCounts[i] = count;
+      windowSampleCount += windowCounts[i];
+    }
+    p50Seconds = percentileSeconds(0.5);
+    p99Seconds = percentileSeconds(0.99);
+    maxSeconds = maxMicros.getAndSet(0) / 1e6;
+  }
+
+  /** Returns the upper edge of the bin containing the percentile, or zero with no samples. */
+  private double percentileSeconds(double percentile) {
+    if (windowSampleCount == 0) {
+      return 0.0;
+    }
+    long target = (long) Math.ceil(percentile * windowSampleCount);
+    long seen = 0;
+    for (int i = 0; i < windowCounts.length; i++) {
+      seen += windowCounts[i];
+      if (seen >= target) {
+        return (i + 1) * binWidthMicros / 1e6;
+      }
+    }
+    return windowCounts.length * binWidthMicros / 1e6;
+  }
+
+  /** Returns the number of durations in the last summary. */
+  public int getSampleCount() {
+    return windowSampleCount;
+  }
+
+  /** Returns the median duration in the last summary, in seconds. */
+  public double getP50Seconds() {
+    return p50Seconds;
+  }
+
+  /** Returns the 99th percentile duration in the last summary, in seconds. */
+  public double getP99Seconds() {
+    return p99Seconds;
+  }
+
+  /** Returns the longest duration in the last summary, in seconds. */
+  public double getMaxSeconds() {
+    return maxSeconds;
+  }
+}
@@ -0,0 +1,208 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Replays the same odometry and vision sequence through DrivePoseEstimator and WPILib's
+ * SwerveDrivePoseEstimator.
+ *
+ * <p>The robot strafes along a curve at a fixed heading, while the wheels slowly drift from the
+ * true path and vision corrects them. Without a heading change, both estimators apply exactly the
+ * same Kalman correction for each measurement, so their poses must match, including when two
+ * cameras add measurements between the same odometry updates.
+ */
+class DrivePoseEstimatorTest {
+  private static final double periodSeconds = 1.0 / DriveConstants.odometryFrequency;
+  // Per camera, the latencies fall between two odometry samples
+  private static final double[] visionLatencySeconds = new double[] {0.034, 0.014};
+  private static final int[] visionLatencyCycles = new int[] {3, 1};
+  private static final int cyclesPerVisionMeasurement = 5;
+  private static final int firstVisionCycle = 50;
+  private static final int warmupCycles = 2_000;
+  private static final int measuredCycles = 1_000;
+  private static final double wheelScale = 1.03; // The wheels measure 3% more than they travel
+  private static final double headingRad = 0.7;
+  private static final double tolerance = 1e-6;
+
+  private static final Matrix<N3, N1> stateStdDevs = VecBuilder.fill(0.1, 0.1, 0.1);
+  private static final Matrix<N3, N1> visionStdDevs = VecBuilder.fill(0.3, 0.3, 0.5);
+
+  private final SwerveDriveKinematics kinematics =
+      new SwerveDriveKinematics(DriveConstants.moduleTranslations);
+  private final Rotation2d gyroAngle = new Rotation2d(); // The robot never turns
+  private final Pose2d initialPose = new Pose2d(2.0, 3.0, new Rotation2d(headingRad));
+
+  // The replayed sequence, created up front so replaying it doesn't allocate
+  private final int cycleCount = warmupCycles + measuredCycles;
+  private final double[] timestamps = new double[cycleCount];
+  private final SwerveModulePosition[][] modulePositions = new SwerveModulePosition[cycleCount][];
+  private final Pose2d[][] visionPoses = new Pose2d[cycleCount][]; // Null without measurements
+
+  DrivePoseEstimatorTest() {
+    Random random = new Random(6721);
+    double distanceMeters = 0.0;
+    double trueX = initialPose.getX();
+    double trueY = initialPose.getY();
+    double[] trueXs = new double[cycleCount];
+    double[] trueYs = new double[cycleCount];
+    double cos = Math.cos(headingRad);
+    double sin = Math.sin(headingRad);
+    for (int cycle = 0; cycle < cycleCount; cycle++) {
+      double t = cycle * periodSeconds;
+      timestamps[cycle] = 10.0 + t;
+
+      // Robot relative velocity, every module points the same way since the robot doesn't turn
+      double vx = 2.0 * Math.cos(0.5 * t);
+      double vy = 1.5 * Math.sin(0.3 * t);
+      double speed = Math.hypot(vx, vy);
+      distanceMeters += speed * periodSeconds * wheelScale;
+      Rotation2d moduleAngle = new Rotation2d(vx, vy);
+      modulePositions[cycle] = new SwerveModulePosition[4];
+      for (int i = 0; i < 4; i++) {
+        modulePositions[cycle][i] = new SwerveModulePosition(distanceMeters, moduleAngle);
+      }
+
+      // The true position, which vision measures with noise a few samples late
+      trueX += (vx * cos - vy * sin) * periodSeconds;
+      trueY += (vx * sin + vy * cos) * periodSeconds;
+      trueXs[cycle] = trueX;
+      trueYs[cycle] = trueY;
+      if (cycle >= firstVisionCycle && cycle % cyclesPerVisionMeasurement == 0) {
+        visionPoses[cycle] = new Pose2d[visionLatencyCycles.length];
+        for (int camera = 0; camera < visionLatencyCycles.length; camera++) {
+          int capturedCycle = cycle - visionLatencyCycles[camera];
+          visionPoses[cycle][camera] =
+              new Pose2d(
+                  trueXs[capturedCycle] + random.nextGaussian() * 0.05,
+                  trueYs[capturedCycle] + random.nextGaussian() * 0.05,
+                  new Rotation2d(headingRad));
+        }
+      }
+    }
+  }
+
+  private DrivePoseEstimator createEstimator() {
+    DrivePoseEstimator estimator =
+        new DrivePoseEstimator(
+            kinematics,
+            gyroAngle,
+            modulePositions[0],
+            initialPose,
+            DriveConstants.poseHistorySeconds);
+    estimator.setStateStdDevs(
+        stateStdDevs.get(0, 0), stateStdDevs.get(1, 0), stateStdDevs.get(2, 0));
+    return estimator;
+  }
+
+  private SwerveDrivePoseEstimator createWPILibEstimator() {
+    return new SwerveDrivePoseEstimator(
+        kinematics, gyroAngle, modulePositions[0], initialPose, stateStdDevs, visionStdDevs);
+  }
+
+  /** Runs one odometry update, with measurements from the first few cameras on vision cycles. */
+  private Pose2d runCycle(DrivePoseEstimator estimator, int cycle, int cameraCount) {
+    estimator.updateWithTime(timestamps[cycle], gyroAngle, modulePositions[cycle]);
+    if (visionPoses[cycle] != null) {
+      for (int camera = 0; camera < cameraCount; camera++) {
+        estimator.addVisionMeasurement(
+            visionPoses[cycle][camera],
+            timestamps[cycle] - visionLatencySeconds[camera],
+            visionStdDevs);
+      }
+    }
+    return estimator.getEstimatedPosition();
+  }
+
+  private Pose2d runWPILibCycle(SwerveDrivePoseEstimator estimator, int cycle, int cameraCount) {
+    estimator.updateWithTime(timestamps[cycle], gyroAngle, modulePositions[cycle]);
+    if (visionPoses[cycle] != null) {
+      for (int camera = 0; camera < cameraCount; camera++) {
+        estimator.addVisionMeasurement(
+            visionPoses[cycle][camera],
+            timestamps[cycle] - visionLatencySeconds[camera],
+            visionStdDevs);
+      }
+    }
+    return estimator.getEstimatedPosition();
+  }
+
+  @Test
+  void matchesWPILibEstimator() {
+    assertMatchesWPILibEstimator(1);
+  }
+
+  @Test
+  void matchesWPILibEstimatorWithSeveralMeasurementsPerUpdate() {
+    assertMatchesWPILibEstimator(visionLatencyCycles.length);
+  }
+
+  private void assertMatchesWPILibEstimator(int cameraCount) {
+    DrivePoseEstimator estimator = createEstimator();
+    SwerveDrivePoseEstimator wpilibEstimator = createWPILibEstimator();
+    double maxTravelMeters = 0.0;
+    for (int cycle = 1; cycle < cycleCount; cycle++) {
+      Pose2d pose = runCycle(estimator, cycle, cameraCount);
+      Pose2d expected = runWPILibCycle(wpilibEstimator, cycle, cameraCount);
+      assertEquals(expected.getX(), pose.getX(), tolerance, "X at cycle " + cycle);
+      assertEquals(expected.getY(), pose.getY(), tolerance, "Y at cycle " + cycle);
+      assertEquals(
+          expected.getRotation().getRadians(),
+          pose.getRotation().getRadians(),
+          tolerance,
+          "Heading at cycle " + cycle);
+      double travelMeters = expected.getTranslation().getDistance(initialPose.getTranslation());
+      maxTravelMeters = Math.max(maxTravelMeters, travelMeters);
+    }
+
+    // Make sure the sequence actually moved the robot, so the comparison means something
+    assertTrue(maxTravelMeters > 1.0, "The robot didn't move");
+  }
+
+  @Test
+  void allocatesLessThanWPILibEstimator() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    // Warm both up until the odometry history is full, then measure the same cycles
+    DrivePoseEstimator estimator = createEstimator();
+    SwerveDrivePoseEstimator wpilibEstimator = createWPILibEstimator();
+    for (int cycle = 1; cycle < warmupCycles; cycle++) {
+      runCycle(estimator, cycle, 1);
+      runWPILibCycle(wpilibEstimator, cycle, 1);
+    }
+
+    long start = threadBean.getCurrentThreadAllocatedBytes();
+    for (int cycle = warmupCycles; cycle < cycleCount; cycle++) {
+      runCycle(estimator, cycle, 1);
+    }
+    long bytes = threadBean.getCurrentThreadAllocatedBytes() - start;
+
+    start = threadBean.getCurrentThreadAllocatedBytes();
+    for (int cycle = warmupCycles; cycle < cycleCount; cycle++) {
+      runWPILibCycle(wpilibEstimator, cycle, 1);
+    }
+    long wpilibBytes = threadBean.getCurrentThreadAllocatedBytes() - start;
+
+    assertTrue(
+        bytes < wpilibBytes,
+        "DrivePoseEstimator allocated " + bytes + " bytes, WPILib allocated " + wpilibBytes);
+  }
+}
@@ -0,0 +1,156 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import edu.wpi.first.hal.HAL;
+import frc.robot.util.FrameRingBuffer;
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the odometry path doesn't allocate once it is warmed up, so it can't cause garbage
+ * collection pauses in the main loop.
+ */
+class OdometryAllocationTest {
+  private static final int warmupCycles = 50_000;
+  private static final int measuredCycles = 10_000;
+  private static final int threadWarmupCycles = 50;
+  private static final int threadMeasuredCycles = 50;
+
+  private static com.sun.management.ThreadMXBean threadBean;
+
+  // Results are kept in a field so the JIT can't remove the work being measured
+  private double checksum = 0.0;
+
+  @BeforeAll
+  static void setup() {
+    assertTrue(HAL.initialize(500, 0));
+    assumeTrue(
+        ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+        "Thread allocation counters aren't available on this JVM");
+    threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private static long allocatedBytes() {
+    return threadBean.getCurrentThreadAllocatedBytes();
+  }
+
+  @Test
+  void ringBufferDrainDoesNotAllocate() {
+    FrameRingBuffer buffer = new FrameRingBuffer(20, 9);
+    double[] frame = new double[9];
+    double[] timestamps = new double[20];
+    double[] values = new double[20 * 9];
+
+    Runnable cycle =
+        () -> {
+          for (int i = 0; i < 5; i++) {
+            frame[i] = i;
+            buffer.offer(i * 0.01, frame);
+          }
+          checksum += buffer.drainTo(timestamps, values);
+        };
+    for (int i = 0; i < warmupCycles; i++) {
+      cycle.run();
+    }
+    long start = allocatedBytes();
+    for (int i = 0; i < measuredCycles; i++) {
+      cycle.run();
+    }
+    assertEquals(0, allocatedBytes() - start);
+  }
+
+  @Test
+  void latchingFramesDoesNotAllocate() throws InterruptedException {
+    SparkOdometryThread odometryThread = SparkOdometryThread.getInstance();
+    int firstColumn = odometryThread.registerSignal(() -> 1.0);
+    int secondColumn = odometryThread.registerSignal(() -> 2.0);
+    odometryThread.start();
+
+    // The notifier publishes frames in the background, a cycle usually latches one or two
+    Runnable cycle =
+        () -> {
+          odometryThread.latchSamples();
+          checksum += odometryThread.readTimestamps().length;
+          checksum += odometryThread.readColumn(firstColumn).length;
+          checksum += odometryThread.readColumn(secondColumn).length;
+          checksum += odometryThread.readSignalTimestamps(firstColumn).length;
+        };
+    for (int i = 0; i < threadWarmupCycles; i++) {
+      Thread.sleep(20);
+      cycle.run();
+    }
+    double latchedFrames = checksum;
+    long start = allocatedBytes();
+    for (int i = 0; i < threadMeasuredCycles; i++) {
+      Thread.sleep(20);
+      cycle.run();
+    }
+    assertEquals(0, allocatedBytes() - start);
+    assertTrue(checksum > latchedFrames, "No frames were latched");
+  }
+
+  @Test
+  void moduleOdometryDoesNotAllocate() {
+    Module[] modules = new Module[4];
+    for (int i = 0; i < 4; i++) {
+      modules[i] = new Module(new FakeModuleIO(), i);
+    }
+    ModuleDeltaTracker deltaTracker = new ModuleDeltaTracker();
+
+    // The same steps Drive.periodic() runs for odometry before solving the chassis motion
+    Runnable cycle =
+        () -> {
+          for (Module module : modules) {
+            module.periodic();
+          }
+          int sampleCount = modules[0].getOdometryTimestamps().length;
+          for (int i = 0; i < sampleCount; i++) {
+            deltaTracker.update(modules, i);
+            checksum += deltaTracker.getDeltas()[0].distanceMeters;
+          }
+        };
+    for (int i = 0; i < warmupCycles; i++) {
+      cycle.run();
+    }
+    long start = allocatedBytes();
+    for (int i = 0; i < measuredCycles; i++) {
+      cycle.run();
+    }
+    assertEquals(0, allocatedBytes() - start);
+    assertTrue(deltaTracker.getValid()[0], "The module deltas weren't used");
+  }
+
+  /**
+   * Module IO with a few samples per cycle and the wheels rolling forward. The real IOs hand over
+   * new arrays for logging, this one refills its own so only the odometry path is measured.
+   */
+  private static class FakeModuleIO implements ModuleIO {
+    private static final int samplesPerCycle = 5;
+
+    private final double[] timestamps = new double[samplesPerCycle];
+    private final double[] drivePositionsRad = new double[samplesPerCycle];
+    private final double[] turnPositionsRad = new double[samplesPerCycle];
+    private int sampleCount = 0;
+
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {
+      for (int i = 0; i < samplesPerCycle; i++) {
+        timestamps[i] = sampleCount * 0.004;
+        drivePositionsRad[i] = sampleCount * 0.01;
+        turnPositionsRad[i] = 0.5;
+        sampleCount++;
+      }
+      inputs.driveConnected = true;
+      inputs.turnConnected = true;
+      inputs.odometryTimestamps = timestamps;
+      inputs.odometryDrivePositionsRad = drivePositionsRad;
+      inputs.odometryTurnPositionsRad = turnPositionsRad;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package frc.robot.subsystems.shooter;
+
+import static edu.wpi.first.units.Units.RPM;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.units.measure.AngularVelocity;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the on-RIO state-space flywheel loop against the Spark PIDF, with ShooterIOSim as the
+ * plant. Times are measured from the high-rate samples, so they resolve to the sample period.
+ *
+ * <p>The state-space loop is tuned here instead of in ShooterConstants until kV and kA are
+ * characterized. WPILib spreads the encoder variance over the loop period, so with the default
+ * model standard deviation the Kalman filter trusts the model far more than the encoder, and the
+ * estimate barely moves when a ball is shot. Trusting the model less lets it follow the dip.
+ */
+class FlywheelControlModeTest {
+  private static final double targetRPM = 3000.0;
+  private static final double spinUpWindowSeconds = 40.0;
+  // Tighter than FLYWHEEL_PID_TOLERANCE, so the next ball leaves at nearly the same speed
+  private static final double recoveryToleranceFraction = 0.02;
+  private static final double modelStdDevRadPerSec = 30.0;
+
+  private boolean feeding = false;
+
+  @BeforeAll
+  static void setup() {
+    assertTrue(HAL.initialize(500, 0));
+  }
+
+  @BeforeEach
+  void pauseTiming() {
+    SimHooks.pauseTiming();
+    feeding = false;
+  }
+
+  @AfterEach
+  void resumeTiming() {
+    SimHooks.resumeTiming();
+  }
+
+  @Test
+  void stateSpaceReachesSpeedFaster() {
+    double sparkSeconds = timeToSpeed(false);
+    double stateSpaceSeconds = timeToSpeed(true);
+
+    assertTrue(Double.isFinite(sparkSeconds), "The Spark PIDF never reached speed");
+    assertTrue(stateSpaceSeconds < 0.25, "State space took " + stateSpaceSeconds + " s");
+    assertTrue(
+        stateSpaceSeconds < sparkSeconds,
+        "State space took " + stateSpaceSeconds + " s, Spark PIDF " + sparkSeconds + " s");
+  }
+
+  @Test
+  void stateSpaceRecoversFromShotFaster() {
+    double sparkSeconds = recoveryTime(false);
+    double stateSpaceSeconds = recoveryTime(true);
+
+    assertTrue(Double.isFinite(sparkSeconds), "The Spark PIDF never recovered");
+    assertTrue(stateSpaceSeconds < 0.1, "State space took " + stateSpaceSeconds + " s");
+    assertTrue(
+        stateSpaceSeconds < sparkSeconds,
+        "State space took " + stateSpaceSeconds + " s, Spark PIDF " + sparkSeconds + " s");
+  }
+
+  /** Creates a shooter running the state-space loop tuned for this test, or the Spark PIDF. */
+  private static Shooter createShooter(ShooterIO io, boolean stateSpace) {
+    return new Shooter(
+        io,
+        stateSpace
+            ? new FlywheelStateSpaceController(
+                modelStdDevRadPerSec, ShooterConstants.FLYWHEEL_ENCODER_STD_DEV_RAD_PER_SEC)
+            : null);
+  }
+
+  /**
+   * Spins the flywheel up from rest, returning the time until a sample is within
+   * FLYWHEEL_PID_TOLERANCE of the target, or infinity if it never gets there.
+   */
+  private double timeToSpeed(boolean stateSpace) {
+    SampledShooterIO io = new SampledShooterIO(new ShooterIOSim(() -> feeding));
+    Shooter shooter = createShooter(io, stateSpace);
+    double startTimestamp = Timer.getFPGATimestamp();
+    shooter.setFlywheelSpeed(RPM.of(targetRPM));
+    for (int cycle = 0; cycle < spinUpWindowSeconds / loopPeriod(); cycle++) {
+      double sampleTimestamp = step(shooter, io, ShooterConstants.FLYWHEEL_PID_TOLERANCE);
+      if (!Double.isNaN(sampleTimestamp)) {
+        return sampleTimestamp - startTimestamp;
+      }
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Spins the flywheel up and lets it settle, then shoots one ball, returning the time until a
+   * sample is back within the recovery tolerance, or infinity if it never gets there.
+   */
+  private double recoveryTime(boolean stateSpace) {
+    SampledShooterIO io = new SampledShooterIO(new ShooterIOSim(() -> feeding));
+    Shooter shooter = createShooter(io, stateSpace);
+    shooter.setFlywheelSpeed(RPM.of(targetRPM));
+    for (int cycle = 0; cycle < spinUpWindowSeconds / loopPeriod(); cycle++) {
+      step(shooter, io, recoveryToleranceFraction);
+    }
+    double[] velocities = io.inputs._flywheelSampleVelocitiesRPM;
+    double settledRPM = velocities[velocities.length - 1];
+    assertTrue(
+        Math.abs(settledRPM - targetRPM) <= targetRPM * recoveryToleranceFraction,
+        (stateSpace ? "State space" : "Spark PIDF") + " settled at " + settledRPM + " RPM");
+
+    // The sim takes the speed out at the start of the next cycle while feeding
+    feeding = true;
+    double shotTimestamp = Timer.getFPGATimestamp();
+    double sampleTimestamp = step(shooter, io, recoveryToleranceFraction);
+    feeding = false;
+    for (int cycle = 0; cycle < 1.0 / loopPeriod() && Double.isNaN(sampleTimestamp); cycle++) {
+      sampleTimestamp = step(shooter, io, recoveryToleranceFraction);
+    }
+    return Double.isNaN(sampleTimestamp)
+        ? Double.POSITIVE_INFINITY
+        : sampleTimestamp - shotTimestamp;
+  }
+
+  /**
+   * Advances the clock one loop period and runs the shooter, returning the timestamp of the first
+   * sample in the cycle that is within a fraction of the target, or NaN if none is.
+   */
+  private static double step(Shooter shooter, SampledShooterIO io, double toleranceFraction) {
+    SimHooks.stepTiming(loopPeriod());
+    shooter.periodic();
+    double[] timestamps = io.inputs._flywheelSampleTimestamps;
+    double[] velocities = io.inputs._flywheelSampleVelocitiesRPM;
+    for (int i = 0; i < timestamps.length; i++) {
+      if (Math.abs(velocities[i] - targetRPM) <= targetRPM * toleranceFraction) {
+        return timestamps[i];
+      }
+    }
+    return Double.NaN;
+  }
+
+  private static double loopPeriod() {
+    return ShooterConstants.FLYWHEEL_LOOP_PERIOD_SECONDS;
+  }
+
+  /** Passes everything through to the sim, keeping the inputs so the samples can be checked. */
+  private static class SampledShooterIO implements ShooterIO {
+    private final ShooterIOSim sim;
+    private ShooterIOInputs inputs = null;
+
+    SampledShooterIO(ShooterIOSim sim) {
+      this.sim = sim;
+    }
+
+    @Override
+    public void updateInputs(ShooterIOInputs inputs) {
+      sim.updateInputs(inputs);
+      this.inputs = inputs;
+    }
+
+    @Override
+    public void setFlywheelSpeed(AngularVelocity speed) {
+      sim.setFlywheelSpeed(speed);
+    }
+
+    @Override
+    public void setFlyWheelDutyCycle(double output) {
+      sim.setFlyWheelDutyCycle(output);
+    }
+
+    @Override
+    public void setFlywheelVoltage(double volts) {
+      sim.setFlywheelVoltage(volts);
+    }
+
+    @Override
+    public void stopFlywheel() {
+      sim.stopFlywheel();
+    }
+  }
+}